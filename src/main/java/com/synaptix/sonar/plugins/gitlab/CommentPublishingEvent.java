@@ -0,0 +1,54 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for the publishing of inline comments on the commit.
+ */
+@Name("com.synaptix.sonar.plugins.gitlab.CommentPublishing")
+@Label("Comment Publishing")
+@Category({"SonarQube", "GitLab"})
+@Description("Publishing of inline comments on the commit")
+final class CommentPublishingEvent extends Event implements Profiling.CommentPublishing {
+
+    @Label("Comments")
+    int comments;
+
+    static CommentPublishingEvent start() {
+        CommentPublishingEvent event = new CommentPublishingEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void finish(int comments) {
+        end();
+        if (shouldCommit()) {
+            this.comments = comments;
+            commit();
+        }
+    }
+}
@@ -19,72 +19,77 @@
  */
 package com.synaptix.sonar.plugins.gitlab;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
-import java.util.ArrayList;
+import java.net.ConnectException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.BitSet;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
-import org.apache.commons.io.IOUtils;
+import org.sonar.api.Startable;
 import org.sonar.api.batch.InstantiationStrategy;
 import org.sonar.api.batch.ScannerSide;
 import org.sonar.api.batch.fs.InputComponent;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.fs.InputPath;
 import org.sonar.api.scan.filesystem.PathResolver;
-
-import com.synaptix.gitlab.api.GitLabAPI;
-import com.synaptix.gitlab.api.Paged;
-import com.synaptix.gitlab.api.models.commits.GitLabCommitDiff;
-import com.synaptix.gitlab.api.models.projects.GitLabProject;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
 
 /**
  * Facade for all WS interaction with GitLab.
  */
 @InstantiationStrategy(InstantiationStrategy.PER_BATCH)
 @ScannerSide
-public class CommitFacade {
+public class CommitFacade implements Startable {
+
+    private static final Logger LOG = Loggers.get(CommitFacade.class);
 
     static final String COMMIT_CONTEXT = "sonarqube";
+    static final long FINAL_STATUS_GRACE_MILLIS = 10000;
+    private static final Pattern HUNK_HEADER = Pattern.compile("@@\\p{Space}-[0-9]+(?:,[0-9]+)?\\p{Space}\\+([0-9]+)(?:,[0-9]+)?\\p{Space}@@.*");
 
     private final GitLabPluginConfiguration config;
+    private final TimeBudget timeBudget;
     private File gitBaseDir;
-    private GitLabAPI gitLabAPI;
-    private GitLabProject gitLabProject;
-    private Map<String, Set<Integer>> patchPositionMappingByFile;
+    private GitLabClient gitLabClient;
+    private GitLabClient.Project gitLabProject;
+    private Map<String, BitSet> patchPositionMappingByFile;
+    private ReportingMode reportingMode = ReportingMode.FULL;
+    private ExecutorService callExecutor;
+    private boolean cancelled;
+    private volatile boolean clientClosed;
 
     public CommitFacade(GitLabPluginConfiguration config) {
         this.config = config;
+        this.timeBudget = new TimeBudget(TimeUnit.SECONDS.toMillis(config.timeBudget()));
     }
 
-    private static Map<String, Set<Integer>> mapPatchPositionsToLines(List<GitLabCommitDiff> diffs) throws IOException {
-        Map<String, Set<Integer>> patchPositionMappingByFile = new HashMap<>();
-        for (GitLabCommitDiff file : diffs) {
-            Set<Integer> patchLocationMapping = new HashSet<>();
-            patchPositionMappingByFile.put(file.getNewPath(), patchLocationMapping);
-            String patch = file.getDiff();
-            if (patch == null) {
-                continue;
-            }
-            processPatch(patchLocationMapping, patch);
-        }
-        return patchPositionMappingByFile;
-    }
-
-    private static void processPatch(Set<Integer> patchLocationMapping, String patch) throws IOException {
+    static void processPatch(String path, BitSet patchLocationMapping, String patch) throws IOException {
+        Profiling.DiffParsing profiling = Profiling.diffParsing();
         int currentLine = -1;
-        for (String line : IOUtils.readLines(new StringReader(patch))) {
+        BufferedReader reader = new BufferedReader(new StringReader(patch));
+        String line;
+        while ((line = reader.readLine()) != null) {
             if (line.startsWith("@@")) {
                 // http://en.wikipedia.org/wiki/Diff_utility#Unified_format
-                Matcher matcher = Pattern.compile("@@\\p{Space}-[0-9]+(?:,[0-9]+)?\\p{Space}\\+([0-9]+)(?:,[0-9]+)?\\p{Space}@@.*").matcher(line);
+                Matcher matcher = HUNK_HEADER.matcher(line);
                 if (!matcher.matches()) {
                     throw new IllegalStateException("Unable to parse patch line " + line + "\nFull patch: \n" + patch);
                 }
@@ -93,36 +98,196 @@ public class CommitFacade {
                 // Skip removed lines
             } else if (line.startsWith("+") || line.startsWith(" ")) {
                 // Count added and unmodified lines
-                patchLocationMapping.add(currentLine);
+                if (currentLine >= 0) {
+                    patchLocationMapping.set(currentLine);
+                }
                 currentLine++;
             } else if (line.startsWith("\\")) {
                 // I'm only aware of \ No newline at end of file
                 // Ignore
             }
         }
+        profiling.finish(path, patch, patchLocationMapping);
+    }
+
+    @Override
+    public void start() {
+        // GitLab is connected by init, once the project base directory is known
+    }
+
+    /**
+     * Release the GitLab client, closing the connection to the publisher daemon, at the end of the analysis.
+     */
+    @Override
+    public void stop() {
+        if (gitLabClient != null) {
+            try {
+                gitLabClient.close();
+            } catch (IOException e) {
+                LOG.debug("Unable to close GitLab client", e);
+            }
+        }
+        synchronized (this) {
+            if (callExecutor != null) {
+                callExecutor.shutdownNow();
+            }
+        }
     }
 
     public void init(File projectBaseDir) {
         if (findGitBaseDir(projectBaseDir) == null) {
             throw new IllegalStateException("Unable to find Git root directory. Is " + projectBaseDir + " part of a Git repository?");
         }
-        gitLabAPI = GitLabAPI.connect(config.url(), config.userToken()).setIgnoreCertificateErrors(config.ignoreCertificate());
+        gitLabClient = connect();
         try {
             gitLabProject = getGitLabProject();
+            String sha = config.commitSHA();
 
-            Paged<GitLabCommitDiff> paged = gitLabAPI.getGitLabAPICommits().getCommitDiffs(gitLabProject.getId(), config.commitSHA(), null);
-            List<GitLabCommitDiff> commitDiffs = new ArrayList<>();
-            do {
-                if (paged.getResults() != null) {
-                    commitDiffs.addAll(paged.getResults());
-                }
-            } while ((paged = paged.nextPage()) != null);
-            patchPositionMappingByFile = mapPatchPositionsToLines(commitDiffs);
+            // Each diff is parsed into the line index as soon as it arrives, so only one page of patches is held at a time
+            patchPositionMappingByFile = new HashMap<>();
+            int statusOnlyThreshold = config.statusOnlyThreshold();
+            int changedFiles = call("fetch commit diffs", () -> gitLabClient.fetchCommitDiffs(gitLabProject.id(), sha, statusOnlyThreshold,
+                (newPath, diff) -> {
+                    BitSet patchLocationMapping = new BitSet();
+                    patchPositionMappingByFile.put(newPath, patchLocationMapping);
+                    if (diff != null) {
+                        processPatch(newPath, patchLocationMapping, diff);
+                    }
+                }));
+            if (changedFiles < 0) {
+                changedFiles = patchPositionMappingByFile.size();
+            }
+            reportingMode = ReportingMode.select(changedFiles, config.summaryThreshold(), statusOnlyThreshold);
+            if (reportingMode == ReportingMode.STATUS_ONLY) {
+                // Changed lines are not used, free them if the total was not known before fetching them
+                patchPositionMappingByFile.clear();
+            }
+            LOG.info("{} files changed by the commit, reporting mode {}", changedFiles, reportingMode);
         } catch (IOException e) {
             throw new IllegalStateException("Unable to perform GitLab WS operation", e);
         }
     }
 
+    /**
+     * Start consuming the time budget, when the plugin starts working.
+     */
+    public void resumeTimeBudget() {
+        timeBudget.resume();
+    }
+
+    /**
+     * Stop consuming the time budget, when the plugin lets the analysis continue.
+     */
+    public void pauseTimeBudget() {
+        timeBudget.pause();
+    }
+
+    /**
+     * Give up publishing on GitLab, when the time budget was exceeded before the analysis.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * True if the commit could not be loaded within the time budget, nothing is published on GitLab then.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Run the GitLab call with the remaining time budget as deadline. On timeout the call is interrupted and the client
+     * is closed, which unblocks a call waiting on the publisher daemon socket. The client is not used anymore then.
+     */
+    private <T> T call(String operation, GitLabCall<T> call, long timeoutMillis) throws IOException {
+        if (timeoutMillis == Long.MAX_VALUE) {
+            return call.call();
+        }
+        if (timeoutMillis <= 0) {
+            throw new TimeBudgetExceededException("GitLab time budget exceeded, unable to " + operation);
+        }
+        Future<T> future = callExecutor().submit(call::call);
+        try {
+            return future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            closeAbandonedClient();
+            throw new TimeBudgetExceededException("GitLab time budget exceeded, unable to " + operation + " within " + timeoutMillis + " ms");
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while trying to " + operation, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Unable to " + operation, cause);
+        }
+    }
+
+    private void closeAbandonedClient() {
+        clientClosed = true;
+        try {
+            gitLabClient.close();
+        } catch (IOException e) {
+            LOG.debug("Unable to close GitLab client", e);
+        }
+    }
+
+    private <T> T call(String operation, GitLabCall<T> call) throws IOException {
+        return call(operation, call, remainingMillis());
+    }
+
+    /**
+     * Remaining time budget for calls with the GitLab client, none once it was closed on timeout.
+     */
+    private long remainingMillis() {
+        return clientClosed ? 0 : timeBudget.remainingMillis();
+    }
+
+    private synchronized ExecutorService callExecutor() {
+        if (callExecutor == null) {
+            callExecutor = Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "GitLab call");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return callExecutor;
+    }
+
+    @FunctionalInterface
+    private interface GitLabCall<T> {
+        T call() throws IOException;
+    }
+
+    private GitLabClient connect() {
+        Integer port = config.publisherPort();
+        if (port != null) {
+            String secretFile = config.publisherSecretFile();
+            try {
+                GitLabClient client = DaemonGitLabClient.connect(port, secretFile != null ? Paths.get(secretFile) : DaemonProtocol.defaultSecretFile(port),
+                    config.url(), config.userToken(), config.ignoreCertificate());
+                LOG.info("Use GitLab publisher daemon on port {}", port);
+                return client;
+            } catch (ConnectException | NoSuchFileException e) {
+                LOG.info("No GitLab publisher daemon on port {}, call GitLab directly", port);
+            } catch (IOException e) {
+                LOG.warn("Unable to use GitLab publisher daemon on port {}, call GitLab directly: {}", port, e.getMessage());
+            }
+        }
+        return newDirectClient();
+    }
+
+    GitLabClient newDirectClient() {
+        return new DirectGitLabClient(config.url(), config.userToken(), config.ignoreCertificate(), null);
+    }
+
     private File findGitBaseDir(@Nullable File baseDir) {
         if (baseDir == null) {
             return null;
@@ -134,78 +299,112 @@ public class CommitFacade {
         return findGitBaseDir(baseDir.getParentFile());
     }
 
-    private GitLabProject getGitLabProject() throws IOException {
+    private GitLabClient.Project getGitLabProject() throws IOException {
         String projectId = config.projectId();
         if (projectId == null) {
             throw new IllegalStateException("Unable found project for null project name. Set Configuration sonar.gitlab.project_id");
         }
-        Paged<GitLabProject> paged = gitLabAPI.getGitLabAPIProjects().getProjectAlls(null, null, null, null, null, null);
-        if (paged == null) {
-            throw new IllegalStateException("Unable found project for " + projectId + " Verify Configuration sonar.gitlab.project_id or sonar.gitlab.user_token access project");
-        }
-        List<GitLabProject> projects = new ArrayList<>();
-        do {
-            if (paged.getResults() != null) {
-                projects.addAll(paged.getResults());
-            }
-        } while ((paged = paged.nextPage()) != null);
+        return call("resolve project " + projectId, () -> gitLabClient.resolveProject(projectId));
+    }
 
-        List<GitLabProject> res = new ArrayList<>();
-        for (GitLabProject project : projects) {
-            if (projectId.equals(project.getId().toString()) || projectId.equals(project.getPathWithNamespace()) || projectId.equals(project.getHttpUrl())
-                || projectId.equals(project.getSshUrl()) || projectId.equals(project.getWebUrl()) || projectId.equals(project.getNameWithNamespace())) {
-                res.add(project);
-            }
-        }
-        if (res.isEmpty()) {
-            throw new IllegalStateException("Unable found project for " + projectId + " Verify Configuration sonar.gitlab.project_id or sonar.gitlab.user_token access project");
+    public void createOrUpdateSonarQubeStatus(String status, String statusDescription) {
+        createOrUpdateSonarQubeStatus(gitLabClient, status, statusDescription, remainingMillis());
+    }
+
+    /**
+     * Best effort update of the commit status once the time budget is exceeded, given {@link #FINAL_STATUS_GRACE_MILLIS}
+     * whatever the remaining budget. Failures are logged.
+     */
+    public void createOrUpdateSonarQubeStatusAfterTimeout(String status, String statusDescription) {
+        if (gitLabProject == null) {
+            LOG.warn("Unable to update commit status, GitLab project is not known");
+            return;
         }
-        if (res.size() > 1) {
-            throw new IllegalStateException("Multiple found projects for " + projectId);
+        // The client may have been closed on timeout, or still be busy with the abandoned call
+        try (GitLabClient client = newDirectClient()) {
+            createOrUpdateSonarQubeStatus(client, status, statusDescription, FINAL_STATUS_GRACE_MILLIS);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Unable to update commit status after GitLab time budget was exceeded", e);
         }
-        return res.get(0);
     }
 
-    public void createOrUpdateSonarQubeStatus(String status, String statusDescription) {
+    private void createOrUpdateSonarQubeStatus(GitLabClient client, String status, String statusDescription, long timeoutMillis) {
+        String sha = config.commitSHA();
         try {
-            gitLabAPI.getGitLabAPICommits().postCommitStatus(gitLabProject.getId(), config.commitSHA(), status, config.refName(), COMMIT_CONTEXT, null, statusDescription);
+            call("update commit status", () -> {
+                client.postCommitStatus(gitLabProject.id(), sha, status, config.refName(), COMMIT_CONTEXT, statusDescription);
+                return null;
+            }, timeoutMillis);
         } catch (IOException e) {
             throw new IllegalStateException("Unable to update commit status", e);
         }
     }
 
+    /**
+     * Reporting mode chosen from the size of the commit, with {@link ReportingMode#STATUS_ONLY} changed lines are not known.
+     */
+    public ReportingMode reportingMode() {
+        return reportingMode;
+    }
+
     public boolean hasFile(InputFile inputFile) {
         return patchPositionMappingByFile.containsKey(getPath(inputFile));
     }
 
     public boolean hasFileLine(InputFile inputFile, int line) {
-        return hasFile(inputFile) && patchPositionMappingByFile.get(getPath(inputFile)).contains(line);
+        return hasFile(inputFile) && patchPositionMappingByFile.get(getPath(inputFile)).get(line);
     }
 
     public String getGitLabUrl(@Nullable InputComponent inputComponent, @Nullable Integer issueLine) {
 	if (inputComponent instanceof InputPath) {
             String path = getPath((InputPath) inputComponent);
-            return gitLabProject.getWebUrl() + "/blob/" + config.commitSHA() + "/" + path + (issueLine != null ? ("#L" + issueLine) : "");
+            return gitLabProject.webUrl() + "/blob/" + config.commitSHA() + "/" + path + (issueLine != null ? ("#L" + issueLine) : "");
         }
         return null;
     }
 
     public void createOrUpdateReviewComment(InputFile inputFile, Integer line, String body) {
-        String fullpath = getPath(inputFile);
+        createOrUpdateReviewComment(getPath(inputFile), line, body);
+    }
+
+    public void createOrUpdateReviewComment(String fullpath, Integer line, String body) {
+        String sha = config.commitSHA();
         try {
-            gitLabAPI.getGitLabAPICommits().postCommitComments(gitLabProject.getId(), config.commitSHA(), body, fullpath, line, "new");
+            call("create review comment", () -> {
+                gitLabClient.postCommitComment(gitLabProject.id(), sha, body, fullpath, line, "new");
+                return null;
+            });
         } catch (IOException e) {
             throw new IllegalStateException("Unable to create or update review comment in file " + fullpath + " at line " + line, e);
         }
     }
 
-    private String getPath(InputPath inputPath) {
+    /**
+     * Create the inline comments one by one.
+     *
+     * @param onCreated called for each comment once created
+     */
+    public void createOrUpdateReviewComments(List<PublishOperation> comments, Consumer<PublishOperation> onCreated) {
+        for (PublishOperation comment : comments) {
+            createOrUpdateReviewComment(comment.path(), comment.line(), comment.body());
+            onCreated.accept(comment);
+        }
+    }
+
+    /**
+     * Path of the file relative to the Git root directory, as known by GitLab.
+     */
+    public String getPath(InputPath inputPath) {
         return new PathResolver().relativePath(gitBaseDir, inputPath.file());
     }
 
     public void addGlobalComment(String comment) {
+        String sha = config.commitSHA();
         try {
-            gitLabAPI.getGitLabAPICommits().postCommitComments(gitLabProject.getId(), config.commitSHA(), comment, null, null, null);
+            call("comment the commit", () -> {
+                gitLabClient.postCommitComment(gitLabProject.id(), sha, comment, null, null, null);
+                return null;
+            });
         } catch (IOException e) {
             throw new IllegalStateException("Unable to comment the commit", e);
         }
@@ -19,32 +19,48 @@
  */
 package com.synaptix.sonar.plugins.gitlab;
 
-import java.util.Comparator;
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 
+import javax.annotation.Nullable;
+
+import org.sonar.api.batch.fs.FileSystem;
 import org.sonar.api.batch.fs.InputComponent;
 import org.sonar.api.batch.fs.InputFile;
 import org.sonar.api.batch.postjob.PostJob;
 import org.sonar.api.batch.postjob.PostJobContext;
 import org.sonar.api.batch.postjob.PostJobDescriptor;
 import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
 
 /**
  * Compute comments to be added on the commit.
  */
 public class CommitIssuePostJob implements PostJob {
-    private static final Comparator<PostJobIssue> ISSUE_COMPARATOR = new IssueComparator();
+
+    private static final Logger LOG = Loggers.get(CommitIssuePostJob.class);
 
     private final GitLabPluginConfiguration gitLabPluginConfiguration;
     private final CommitFacade commitFacade;
     private final MarkDownUtils markDownUtils;
+    private final FileSystem fileSystem;
 
-    public CommitIssuePostJob(GitLabPluginConfiguration gitLabPluginConfiguration, CommitFacade commitFacade, MarkDownUtils markDownUtils) {
+    public CommitIssuePostJob(GitLabPluginConfiguration gitLabPluginConfiguration, CommitFacade commitFacade, MarkDownUtils markDownUtils,
+        FileSystem fileSystem) {
         this.gitLabPluginConfiguration = gitLabPluginConfiguration;
         this.commitFacade = commitFacade;
         this.markDownUtils = markDownUtils;
+        this.fileSystem = fileSystem;
     }
 
     @Override
@@ -55,75 +71,278 @@ public class CommitIssuePostJob implements PostJob {
 
     @Override
     public void execute(PostJobContext context) {
-        GlobalReport report = new GlobalReport(gitLabPluginConfiguration.maxGlobalIssues(), markDownUtils);
+        if (commitFacade.isCancelled()) {
+            LOG.warn("Commit was not loaded within the GitLab time budget, issues are not published");
+            return;
+        }
+        commitFacade.resumeTimeBudget();
+        try (PublishJournal journal = PublishJournal.open(journalDir(), gitLabPluginConfiguration.commitSHA())) {
+            if (journal.hasAcknowledgements()) {
+                LOG.info("Resume publishing from journal {}", journal.file());
+            }
+            GlobalReport report = new GlobalReport(gitLabPluginConfiguration.maxGlobalIssues(), markDownUtils);
+            try {
+                publish(context, report, journal);
+            } catch (TimeBudgetExceededException e) {
+                LOG.warn(e.getMessage());
+                logSkipped(journal);
+                commitFacade.createOrUpdateSonarQubeStatusAfterTimeout(report.getStatus(),
+                    report.getStatusDescription() + " (GitLab time budget exceeded, some comments are missing)");
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write GitLab publish journal", e);
+        } finally {
+            commitFacade.pauseTimeBudget();
+        }
+    }
+
+    /**
+     * Directory of the journal, the scanner work directory is cleaned at each analysis so that a rerun only resumes with
+     * {@code sonar.gitlab.journal_dir}.
+     */
+    private File journalDir() {
+        String journalDir = gitLabPluginConfiguration.journalDir();
+        if (journalDir == null) {
+            return new File(fileSystem.workDir(), "gitlab");
+        }
+        File dir = new File(journalDir);
+        return dir.isAbsolute() ? dir : new File(fileSystem.baseDir(), journalDir);
+    }
+
+    private void publish(PostJobContext context, GlobalReport report, PublishJournal journal) throws IOException {
+        // Inline comments are created while issues are aggregated, the global comment and the status need all of them
+        PublishOperation globalComment;
+        PublishOperation status;
+        try (ReviewCommentPublisher publisher = new ReviewCommentPublisher(commitFacade, journal, ReviewCommentPublisher.QUEUE_CAPACITY)) {
+            if (gitLabPluginConfiguration.exportReport()) {
+                try (IssueReportExporter exporter = IssueReportExporter.open(fileSystem.workDir(), gitLabPluginConfiguration.commitSHA())) {
+                    processIssues(report, exporter, publisher, context.issues());
+                    LOG.info("Issues exported to {}", exporter.file());
+                } catch (IOException e) {
+                    throw new IllegalStateException("Unable to export issues", e);
+                }
+            } else {
+                processIssues(report, null, publisher, context.issues());
+            }
 
-        Map<InputFile, Map<Integer, StringBuilder>> commentsToBeAddedByLine = processIssues(report, context.issues());
+            globalComment = report.hasNewIssue() && commitFacade.reportingMode() != ReportingMode.STATUS_ONLY
+                ? PublishOperation.globalComment(report.formatForMarkdown()) : null;
+            status = PublishOperation.status(report.getStatus(), statusDescription(report));
+            List<PublishOperation> operations = new ArrayList<>();
+            if (globalComment != null) {
+                operations.add(globalComment);
+            }
+            operations.add(status);
+            journal.plan(operations);
 
-        updateReviewComments(commentsToBeAddedByLine);
+            publisher.finish();
+        }
 
-        if (report.hasNewIssue()) {
-            commitFacade.addGlobalComment(report.formatForMarkdown());
+        if (globalComment != null) {
+            deliver(journal, globalComment);
         }
+        deliver(journal, status);
+    }
 
-        commitFacade.createOrUpdateSonarQubeStatus(report.getStatus(), report.getStatusDescription());
+    private static void logSkipped(PublishJournal journal) {
+        List<PublishOperation> skipped = journal.unacknowledged().stream()
+            .filter(o -> o.type() != PublishOperation.Type.STATUS)
+            .collect(Collectors.toList());
+        LOG.warn("{} GitLab operations skipped, a rerun on the same commit publishes them from journal {}", skipped.size(), journal.file());
+        for (PublishOperation operation : skipped) {
+            if (operation.type() == PublishOperation.Type.INLINE_COMMENT) {
+                LOG.debug("Skipped inline comment in file {} at line {}", operation.path(), operation.line());
+            } else {
+                LOG.debug("Skipped global comment");
+            }
+        }
     }
 
-    private Map<InputFile, Map<Integer, StringBuilder>> processIssues(GlobalReport report, Iterable<PostJobIssue> issues) {
-        Map<InputFile, Map<Integer, StringBuilder>> commentToBeAddedByFileAndByLine = new HashMap<>();
-        StreamSupport.stream(issues.spliterator(), false)
+    private void processIssues(GlobalReport report, @Nullable IssueReportExporter exporter, ReviewCommentPublisher publisher,
+        Iterable<PostJobIssue> issues) {
+        Profiling.IssueAggregation profiling = Profiling.issueAggregation();
+        InlineCommentBudget budget = new InlineCommentBudget(maxInlineComments());
+        boolean allFiles = !gitLabPluginConfiguration.ignoreFileNotInCommit() || statusOnlyAllFiles();
+        List<PostJobIssue> newIssues = StreamSupport.stream(issues.spliterator(), false)
                      .filter(PostJobIssue::isNew)
                      .filter(i -> {
                      InputComponent inputComponent = i.inputComponent();
                      return inputComponent == null || !inputComponent.isFile()
                                  || commitFacade.hasFile((InputFile) inputComponent)
-                                 || !gitLabPluginConfiguration.ignoreFileNotInCommit();
+                                 || allFiles;
                      })
-                     .sorted(ISSUE_COMPARATOR)
-                     .forEach(i -> processIssue(report, commentToBeAddedByFileAndByLine, i));
+                     .collect(Collectors.toList());
+        List<IndexedIssue> sortedIssues = IndexedIssue.sort(newIssues);
 
-        return commentToBeAddedByFileAndByLine;
+        // First pass, most severe first: only inline comment slots are allocated
+        boolean[] inline = new boolean[sortedIssues.size()];
+        boolean[] overBudget = new boolean[sortedIssues.size()];
+        Set<Long> slots = new HashSet<>();
+        for (int i = 0; i < sortedIssues.size(); i++) {
+            IndexedIssue indexedIssue = sortedIssues.get(i);
+            if (isInlineCandidate(indexedIssue.issue())) {
+                inline[i] = tryAcquireSlot(budget, slots, indexedIssue);
+                overBudget[i] = !inline[i];
+            }
+        }
+
+        // Second pass, file by file: issues are counted and exported, and the comments of a file are published as soon
+        // as the next file starts, while the next files are processed
+        int files = 0;
+        int currentComponent = -1;
+        InputFile currentFile = null;
+        Map<Integer, StringBuilder> commentsByLine = new LinkedHashMap<>();
+        for (int position : IndexedIssue.componentOrder(sortedIssues)) {
+            IndexedIssue indexedIssue = sortedIssues.get(position);
+            if (indexedIssue.componentIndex() != currentComponent) {
+                if (!commentsByLine.isEmpty()) {
+                    files++;
+                    submit(publisher, toReviewComments(currentFile, commentsByLine));
+                    commentsByLine = new LinkedHashMap<>();
+                }
+                currentComponent = indexedIssue.componentIndex();
+                currentFile = null;
+            }
+            processIssue(report, exporter, indexedIssue, inline[position], overBudget[position]);
+            if (inline[position]) {
+                currentFile = (InputFile) indexedIssue.issue().inputComponent();
+                appendInline(commentsByLine, indexedIssue, currentFile, indexedIssue.issue().line());
+            }
+        }
+        if (!commentsByLine.isEmpty()) {
+            files++;
+            submit(publisher, toReviewComments(currentFile, commentsByLine));
+        }
+        profiling.finish(newIssues.size(), files);
     }
 
-    private void processIssue(GlobalReport report,
-        Map<InputFile, Map<Integer, StringBuilder>> commentToBeAddedByFileAndByLine, PostJobIssue issue) {
-        boolean reportedInline = false;
-        InputComponent inputComponent = issue.inputComponent();
-        if (inputComponent != null && inputComponent.isFile()) {
-            reportedInline = tryReportInline(commentToBeAddedByFileAndByLine, issue, (InputFile) inputComponent);
+    private static void submit(ReviewCommentPublisher publisher, List<PublishOperation> reviewComments) {
+        try {
+            publisher.submit(reviewComments);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write GitLab publish journal", e);
         }
-        report.process(issue, commitFacade.getGitLabUrl(inputComponent, issue.line()), reportedInline);
     }
 
-    private boolean tryReportInline(Map<InputFile, Map<Integer, StringBuilder>> commentToBeAddedByFileAndByLine,
-	    PostJobIssue issue, InputFile inputFile) {
+    private boolean isInlineCandidate(PostJobIssue issue) {
+        InputComponent inputComponent = issue.inputComponent();
         Integer issueLine = issue.line();
-        if (issueLine != null) {
-            int line = issueLine.intValue();
-            if (commitFacade.hasFileLine(inputFile, line)) {
-                String message = issue.message();
-                String ruleKey = issue.ruleKey().toString();
-                if (!commentToBeAddedByFileAndByLine.containsKey(inputFile)) {
-                    commentToBeAddedByFileAndByLine.put(inputFile, new HashMap<Integer, StringBuilder>());
-                }
-                Map<Integer, StringBuilder> commentsByLine = commentToBeAddedByFileAndByLine.get(inputFile);
-                if (!commentsByLine.containsKey(line)) {
-                    commentsByLine.put(line, new StringBuilder());
-                }
-                commentsByLine.get(line)
-                    .append(markDownUtils.inlineIssue(issue.severity(), message, ruleKey))
-                    .append("\n");
-                return true;
-            }
+        return inputComponent != null && inputComponent.isFile() && issueLine != null
+            && commitFacade.hasFileLine((InputFile) inputComponent, issueLine);
+    }
+
+    /**
+     * Count the issue in the report and export it.
+     */
+    private void processIssue(GlobalReport report, @Nullable IssueReportExporter exporter, IndexedIssue indexedIssue, boolean reportedInline,
+        boolean overBudget) {
+        String gitLabUrl = commitFacade.getGitLabUrl(indexedIssue.issue().inputComponent(), indexedIssue.issue().line());
+        if (overBudget) {
+            report.processOverBudget(indexedIssue);
+        } else {
+            report.process(indexedIssue, gitLabUrl, reportedInline);
+        }
+        if (exporter != null) {
+            exporter.write(indexedIssue, gitLabUrl, reportedInline);
+        }
+    }
+
+    /**
+     * A new comment, on a new line or in a new file depending on the comment mode, costs one GitLab call. Issues are
+     * sorted so the most severe ones get the slots.
+     */
+    private boolean tryAcquireSlot(InlineCommentBudget budget, Set<Long> slots, IndexedIssue indexedIssue) {
+        long slot = gitLabPluginConfiguration.commentPerFile() ? indexedIssue.componentIndex() : indexedIssue.positionKey();
+        return slots.contains(slot) || (budget.tryAcquire() && slots.add(slot));
+    }
+
+    private void appendInline(Map<Integer, StringBuilder> commentsByLine, IndexedIssue indexedIssue, InputFile inputFile, int line) {
+        StringBuilder comment = commentsByLine.computeIfAbsent(line, l -> new StringBuilder());
+        if (gitLabPluginConfiguration.commentPerFile()) {
+            comment.append(markDownUtils.inlineIssueRow(indexedIssue.severity(), indexedIssue.issue().message(), indexedIssue.ruleKey(), line,
+                commitFacade.getGitLabUrl(inputFile, line)));
+        } else {
+            comment.append(markDownUtils.inlineIssue(indexedIssue.severity(), indexedIssue.issue().message(), indexedIssue.ruleKey()));
         }
-        return false;
+        comment.append("\n");
     }
 
-    private void updateReviewComments(Map<InputFile, Map<Integer, StringBuilder>> commentsToBeAddedByLine) {
-        for (Map.Entry<InputFile, Map<Integer, StringBuilder>> entry : commentsToBeAddedByLine.entrySet()) {
-            for (Map.Entry<Integer, StringBuilder> entryPerLine : entry.getValue().entrySet()) {
-                String body = entryPerLine.getValue().toString();
-                commitFacade.createOrUpdateReviewComment(entry.getKey(), entryPerLine.getKey(), body);
+    private List<PublishOperation> toReviewComments(InputFile inputFile, Map<Integer, StringBuilder> commentsByLine) {
+        List<PublishOperation> reviewComments = new ArrayList<>();
+        String path = commitFacade.getPath(inputFile);
+        if (gitLabPluginConfiguration.commentPerFile()) {
+            // One comment per file anchored on its first line with issues, with a row per issue
+            TreeMap<Integer, StringBuilder> sortedCommentsByLine = new TreeMap<>(commentsByLine);
+            StringBuilder body = new StringBuilder(MarkDownUtils.INLINE_ISSUE_TABLE_HEADER);
+            sortedCommentsByLine.values().forEach(body::append);
+            reviewComments.add(PublishOperation.inlineComment(path, sortedCommentsByLine.firstKey(), body.toString()));
+        } else {
+            for (Map.Entry<Integer, StringBuilder> entryPerLine : commentsByLine.entrySet()) {
+                reviewComments.add(PublishOperation.inlineComment(path, entryPerLine.getKey(), entryPerLine.getValue().toString()));
             }
         }
+        return reviewComments;
+    }
+
+    /**
+     * Without changed lines, issues of all files are counted in the status only if asked to.
+     */
+    private boolean statusOnlyAllFiles() {
+        return commitFacade.reportingMode() == ReportingMode.STATUS_ONLY && gitLabPluginConfiguration.statusOnlyAllFiles();
+    }
+
+    /**
+     * Description of the status, stating which file issues were counted when changed lines are not known.
+     */
+    private String statusDescription(GlobalReport report) {
+        String description = report.getStatusDescription();
+        if (commitFacade.reportingMode() != ReportingMode.STATUS_ONLY || !gitLabPluginConfiguration.ignoreFileNotInCommit()) {
+            return description;
+        }
+        return description + (statusOnlyAllFiles() ? " (too many changed files, issues of all files counted)"
+            : " (too many changed files, issues of files not checked)");
+    }
+
+    /**
+     * Maximum number of inline comments, negative for no limit, lowered for oversized commits.
+     */
+    private int maxInlineComments() {
+        int maxInlineComments = gitLabPluginConfiguration.maxInlineComments();
+        switch (commitFacade.reportingMode()) {
+        case SUMMARY:
+            int summaryMaxInlineComments = gitLabPluginConfiguration.summaryMaxInlineComments();
+            return maxInlineComments < 0 ? summaryMaxInlineComments : Math.min(maxInlineComments, summaryMaxInlineComments);
+        case STATUS_ONLY:
+            return 0;
+        default:
+            return maxInlineComments;
+        }
+    }
+
+    /**
+     * Publish the operation unless a previous run already did, then acknowledge it in the journal. The status is always
+     * published as it is idempotent and was reset to pending at the beginning of this analysis.
+     *
+     * @return true if a GitLab call was made
+     */
+    private boolean deliver(PublishJournal journal, PublishOperation operation) throws IOException {
+        if (operation.type() != PublishOperation.Type.STATUS && journal.isAcknowledged(operation)) {
+            return false;
+        }
+        switch (operation.type()) {
+        case INLINE_COMMENT:
+            commitFacade.createOrUpdateReviewComment(operation.path(), operation.line(), operation.body());
+            break;
+        case GLOBAL_COMMENT:
+            commitFacade.addGlobalComment(operation.body());
+            break;
+        case STATUS:
+            commitFacade.createOrUpdateSonarQubeStatus(operation.status(), operation.body());
+            break;
+        default:
+            throw new IllegalStateException("Unknown operation " + operation.type());
+        }
+        journal.acknowledge(operation);
+        return true;
     }
 }
@@ -23,6 +23,8 @@ import org.sonar.api.CoreProperties;
 import org.sonar.api.batch.AnalysisMode;
 import org.sonar.api.batch.bootstrap.ProjectBuilder;
 import org.sonar.api.utils.MessageException;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
 
 /**
  * Trigger load of commit metadata at the very beginning of SQ analysis. Also
@@ -30,6 +32,8 @@ import org.sonar.api.utils.MessageException;
  */
 public class CommitProjectBuilder extends ProjectBuilder {
 
+    private static final Logger LOG = Loggers.get(CommitProjectBuilder.class);
+
     private final GitLabPluginConfiguration gitLabPluginConfiguration;
     private final CommitFacade commitFacade;
     private final AnalysisMode mode;
@@ -47,8 +51,18 @@ public class CommitProjectBuilder extends ProjectBuilder {
         }
 
         checkMode();
-        commitFacade.init(context.projectReactor().getRoot().getBaseDir());
-        commitFacade.createOrUpdateSonarQubeStatus("pending", "SonarQube analysis in progress");
+        commitFacade.resumeTimeBudget();
+        try {
+            commitFacade.init(context.projectReactor().getRoot().getBaseDir());
+            commitFacade.createOrUpdateSonarQubeStatus("pending", "SonarQube analysis in progress");
+        } catch (TimeBudgetExceededException e) {
+            // Let the analysis go on, issues are not published if the commit was not loaded
+            LOG.warn(e.getMessage());
+            commitFacade.cancel();
+            commitFacade.createOrUpdateSonarQubeStatusAfterTimeout("canceled", "SonarQube GitLab time budget exceeded");
+        } finally {
+            commitFacade.pauseTimeBudget();
+        }
     }
 
     private void checkMode() {
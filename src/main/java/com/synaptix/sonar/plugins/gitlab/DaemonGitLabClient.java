@@ -0,0 +1,179 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static com.synaptix.sonar.plugins.gitlab.DaemonProtocol.readString;
+import static com.synaptix.sonar.plugins.gitlab.DaemonProtocol.writeInteger;
+import static com.synaptix.sonar.plugins.gitlab.DaemonProtocol.writeString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+
+import javax.annotation.Nullable;
+
+/**
+ * {@link GitLabClient} handing its work to a {@link GitLabPublisherDaemon} listening on a local port.
+ */
+final class DaemonGitLabClient implements GitLabClient {
+
+    private static final int CONNECT_TIMEOUT_MS = 1000;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final String url;
+    private final String userToken;
+    private final boolean ignoreCertificate;
+
+    private DaemonGitLabClient(Socket socket, @Nullable String url, @Nullable String userToken, boolean ignoreCertificate) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.url = url;
+        this.userToken = userToken;
+        this.ignoreCertificate = ignoreCertificate;
+    }
+
+    /**
+     * Connect to the daemon listening on the loopback interface, and check that it knows the secret of the given file
+     * before sending it any user token.
+     *
+     * @throws IOException if no daemon is listening on the port or if it could not be authenticated
+     */
+    static DaemonGitLabClient connect(int port, Path secretFile, @Nullable String url, @Nullable String userToken, boolean ignoreCertificate)
+        throws IOException {
+        byte[] secret = DaemonProtocol.readSecret(secretFile);
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT_MS);
+            socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+            DaemonGitLabClient client = new DaemonGitLabClient(socket, url, userToken, ignoreCertificate);
+            DaemonProtocol.authenticateDaemon(client.in, client.out, secret);
+            socket.setSoTimeout(0);
+            return client;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized Project resolveProject(String projectId) throws IOException {
+        return Profiling.gitLabCall("daemon " + DaemonProtocol.RESOLVE_PROJECT, null, () -> {
+            startRequest(DaemonProtocol.RESOLVE_PROJECT);
+            writeString(out, projectId);
+            out.flush();
+            readResult(null);
+            return new Project(in.readInt(), readString(in));
+        });
+    }
+
+    @Override
+    public synchronized int fetchCommitDiffs(int projectId, String commitSHA, int maxFiles, DiffHandler handler) throws IOException {
+        return Profiling.gitLabCall("daemon " + DaemonProtocol.COMMIT_DIFFS, null, () -> {
+            startRequest(DaemonProtocol.COMMIT_DIFFS);
+            out.writeInt(projectId);
+            writeString(out, commitSHA);
+            out.writeInt(maxFiles);
+            out.flush();
+            readResult(handler);
+            return in.readInt();
+        });
+    }
+
+    @Override
+    public synchronized void postCommitStatus(int projectId, String commitSHA, String status, @Nullable String refName, String context,
+        String description) throws IOException {
+        Profiling.gitLabCall("daemon " + DaemonProtocol.COMMIT_STATUS, description, () -> {
+            startRequest(DaemonProtocol.COMMIT_STATUS);
+            out.writeInt(projectId);
+            writeString(out, commitSHA);
+            writeString(out, status);
+            writeString(out, refName);
+            writeString(out, context);
+            writeString(out, description);
+            out.flush();
+            readResult(null);
+            return null;
+        });
+    }
+
+    @Override
+    public synchronized void postCommitComment(int projectId, String commitSHA, String body, @Nullable String path, @Nullable Integer line,
+        @Nullable String lineType) throws IOException {
+        Profiling.gitLabCall("daemon " + DaemonProtocol.COMMIT_COMMENT, body, () -> {
+            startRequest(DaemonProtocol.COMMIT_COMMENT);
+            out.writeInt(projectId);
+            writeString(out, commitSHA);
+            writeString(out, body);
+            writeString(out, path);
+            writeInteger(out, line);
+            writeString(out, lineType);
+            out.flush();
+            readResult(null);
+            return null;
+        });
+    }
+
+    private void startRequest(String operation) throws IOException {
+        out.writeUTF(operation);
+        writeString(out, url);
+        writeString(out, userToken);
+        out.writeBoolean(ignoreCertificate);
+    }
+
+    private void readResult(@Nullable DiffHandler handler) throws IOException {
+        while (true) {
+            byte code = in.readByte();
+            switch (code) {
+            case DaemonProtocol.OK:
+                return;
+            case DaemonProtocol.DIFF:
+                String newPath = readString(in);
+                String diff = readString(in);
+                if (handler != null) {
+                    handler.onDiff(newPath, diff);
+                }
+                break;
+            case DaemonProtocol.ILLEGAL_STATE:
+                throw new IllegalStateException(readString(in));
+            case DaemonProtocol.IO_ERROR:
+                throw new IOException(readString(in));
+            default:
+                throw new IOException("Unexpected response from GitLab publisher daemon: " + code);
+            }
+        }
+    }
+
+    /**
+     * Not synchronized, so that it can interrupt a call blocked on the socket.
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Set;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * Wire format between {@link DaemonGitLabClient} and {@link GitLabPublisherDaemon}.
+ * <p>
+ * A connection starts with a mutual authentication, so that user tokens are only sent to the daemon and the daemon only
+ * serves scanners of the same user: both sides prove with an HMAC of their nonces that they know the secret stored by
+ * the daemon in a file only readable by its owner. The client sends its nonce, the daemon answers with its nonce and
+ * its proof, then the client sends its proof and the daemon acknowledges with {@link #OK}.
+ * <p>
+ * A request is the operation name, the GitLab url, user token and ignore certificate flag, then the arguments of the
+ * operation. A response is a sequence of {@link #DIFF} records for {@link #COMMIT_DIFFS}, ended by {@link #OK} with the
+ * result (project id and web url, or number of changed files) or by an error code with its message.
+ */
+final class DaemonProtocol {
+
+    static final String RESOLVE_PROJECT = "resolveProject";
+    static final String COMMIT_DIFFS = "commitDiffs";
+    static final String COMMIT_STATUS = "commitStatus";
+    static final String COMMIT_COMMENT = "commitComment";
+
+    static final byte OK = 0;
+    static final byte DIFF = 1;
+    static final byte ILLEGAL_STATE = 2;
+    static final byte IO_ERROR = 3;
+
+    private static final int NONCE_LENGTH = 16;
+    private static final int SECRET_LENGTH = 32;
+    private static final int PROOF_LENGTH = 32;
+    private static final String HMAC = "HmacSHA256";
+    private static final String DAEMON_ROLE = "daemon";
+    private static final String CLIENT_ROLE = "client";
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private DaemonProtocol() {
+        // Only static methods
+    }
+
+    /**
+     * Default secret file of the daemon listening on the given port, in the home directory of the user.
+     */
+    static Path defaultSecretFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".sonar-gitlab", "publisher-" + port + ".secret");
+    }
+
+    /**
+     * Generate a new secret and store it in a file only readable and writable by its owner.
+     */
+    static byte[] createSecret(Path secretFile) throws IOException {
+        byte[] secret = new byte[SECRET_LENGTH];
+        RANDOM.nextBytes(secret);
+        Path dir = secretFile.toAbsolutePath().getParent();
+        if (isPosix(dir)) {
+            if (!Files.isDirectory(dir)) {
+                Files.createDirectories(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+            }
+            Files.deleteIfExists(secretFile);
+            Files.createFile(secretFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createDirectories(dir);
+        }
+        Files.write(secretFile, secret);
+        return secret;
+    }
+
+    /**
+     * Read the secret of the daemon, refusing a file that could have been written or read by another user.
+     */
+    static byte[] readSecret(Path secretFile) throws IOException {
+        if (isPosix(secretFile)) {
+            Set<PosixFilePermission> permissions = Files.getPosixFilePermissions(secretFile);
+            if (permissions.contains(PosixFilePermission.GROUP_READ) || permissions.contains(PosixFilePermission.GROUP_WRITE)
+                || permissions.contains(PosixFilePermission.OTHERS_READ) || permissions.contains(PosixFilePermission.OTHERS_WRITE)) {
+                throw new IOException("Secret file " + secretFile + " must only be readable and writable by its owner");
+            }
+            String owner = Files.getOwner(secretFile).getName();
+            if (!owner.equals(System.getProperty("user.name"))) {
+                throw new IOException("Secret file " + secretFile + " is owned by " + owner);
+            }
+        }
+        byte[] secret = Files.readAllBytes(secretFile);
+        if (secret.length != SECRET_LENGTH) {
+            throw new IOException("Invalid secret file " + secretFile);
+        }
+        return secret;
+    }
+
+    private static boolean isPosix(Path path) {
+        return path.getFileSystem().supportedFileAttributeViews().contains("posix");
+    }
+
+    /**
+     * Authenticate the daemon then the client, on the client side.
+     */
+    static void authenticateDaemon(DataInputStream in, DataOutputStream out, byte[] secret) throws IOException {
+        byte[] clientNonce = nonce();
+        out.write(clientNonce);
+        out.flush();
+        byte[] daemonNonce = readBytes(in, NONCE_LENGTH);
+        byte[] daemonProof = readBytes(in, PROOF_LENGTH);
+        if (!MessageDigest.isEqual(daemonProof, proof(secret, DAEMON_ROLE, clientNonce, daemonNonce))) {
+            throw new IOException("GitLab publisher daemon could not be authenticated");
+        }
+        out.write(proof(secret, CLIENT_ROLE, clientNonce, daemonNonce));
+        out.flush();
+        if (in.readByte() != OK) {
+            throw new IOException("GitLab publisher daemon refused the connection");
+        }
+    }
+
+    /**
+     * Authenticate the daemon then the client, on the daemon side.
+     *
+     * @return false if the client could not prove that it knows the secret
+     */
+    static boolean authenticateClient(DataInputStream in, DataOutputStream out, byte[] secret) throws IOException {
+        byte[] clientNonce = readBytes(in, NONCE_LENGTH);
+        byte[] daemonNonce = nonce();
+        out.write(daemonNonce);
+        out.write(proof(secret, DAEMON_ROLE, clientNonce, daemonNonce));
+        out.flush();
+        byte[] clientProof = readBytes(in, PROOF_LENGTH);
+        if (!MessageDigest.isEqual(clientProof, proof(secret, CLIENT_ROLE, clientNonce, daemonNonce))) {
+            return false;
+        }
+        out.writeByte(OK);
+        out.flush();
+        return true;
+    }
+
+    private static byte[] nonce() {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        return nonce;
+    }
+
+    private static byte[] proof(byte[] secret, String role, byte[] clientNonce, byte[] daemonNonce) {
+        try {
+            Mac mac = Mac.getInstance(HMAC);
+            mac.init(new SecretKeySpec(secret, HMAC));
+            mac.update(role.getBytes(StandardCharsets.UTF_8));
+            mac.update(clientNonce);
+            mac.update(daemonNonce);
+            return mac.doFinal();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Unable to compute " + HMAC, e);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    @CheckForNull
+    static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void writeInteger(DataOutputStream out, @Nullable Integer value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeInt(value);
+        }
+    }
+
+    @CheckForNull
+    static Integer readInteger(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readInt() : null;
+    }
+}
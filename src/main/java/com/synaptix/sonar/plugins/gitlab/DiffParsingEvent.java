@@ -0,0 +1,67 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.BitSet;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for the parsing of the patch of one file of the commit.
+ */
+@Name("com.synaptix.sonar.plugins.gitlab.DiffParsing")
+@Label("Diff Parsing")
+@Category({"SonarQube", "GitLab"})
+@Description("Parsing of a file patch into changed line positions")
+final class DiffParsingEvent extends Event implements Profiling.DiffParsing {
+
+    @Label("Path")
+    String path;
+
+    @Label("Patch Size")
+    @DataAmount
+    long patchSize;
+
+    @Label("Lines")
+    @Description("Number of lines of the new file covered by the patch")
+    int lines;
+
+    static DiffParsingEvent start() {
+        DiffParsingEvent event = new DiffParsingEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void finish(String path, String patch, BitSet lines) {
+        end();
+        if (shouldCommit()) {
+            this.path = path;
+            this.patchSize = patch.length();
+            this.lines = lines.cardinality();
+            commit();
+        }
+    }
+}
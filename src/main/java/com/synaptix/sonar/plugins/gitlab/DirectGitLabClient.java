@@ -0,0 +1,151 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import com.synaptix.gitlab.api.GitLabAPI;
+import com.synaptix.gitlab.api.Paged;
+import com.synaptix.gitlab.api.models.commits.GitLabCommitDiff;
+import com.synaptix.gitlab.api.models.projects.GitLabProject;
+
+/**
+ * {@link GitLabClient} calling GitLab with its own {@link GitLabAPI}.
+ */
+final class DirectGitLabClient implements GitLabClient {
+
+    private final GitLabAPI gitLabAPI;
+    private final RateLimiter rateLimiter;
+    private final Map<String, Project> projects = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    DirectGitLabClient(@Nullable String url, @Nullable String userToken, boolean ignoreCertificate, @Nullable RateLimiter rateLimiter) {
+        this(GitLabAPI.connect(url, userToken).setIgnoreCertificateErrors(ignoreCertificate), rateLimiter);
+    }
+
+    DirectGitLabClient(GitLabAPI gitLabAPI, @Nullable RateLimiter rateLimiter) {
+        this.gitLabAPI = gitLabAPI;
+        this.rateLimiter = rateLimiter;
+    }
+
+    @Override
+    public Project resolveProject(String projectId) throws IOException {
+        Project project = projects.get(projectId);
+        if (project == null) {
+            GitLabProject gitLabProject = findProject(projectId);
+            project = new Project(gitLabProject.getId(), gitLabProject.getWebUrl());
+            projects.put(projectId, project);
+        }
+        return project;
+    }
+
+    private GitLabProject findProject(String projectId) throws IOException {
+        Paged<GitLabProject> paged = call("GET projects", null, () -> gitLabAPI.getGitLabAPIProjects().getProjectAlls(null, null, null, null, null, null));
+        if (paged == null) {
+            throw new IllegalStateException("Unable found project for " + projectId + " Verify Configuration sonar.gitlab.project_id or sonar.gitlab.user_token access project");
+        }
+        List<GitLabProject> res = new ArrayList<>();
+        do {
+            if (paged.getResults() != null) {
+                for (GitLabProject project : paged.getResults()) {
+                    if (projectId.equals(project.getId().toString()) || projectId.equals(project.getPathWithNamespace()) || projectId.equals(project.getHttpUrl())
+                        || projectId.equals(project.getSshUrl()) || projectId.equals(project.getWebUrl()) || projectId.equals(project.getNameWithNamespace())) {
+                        res.add(project);
+                    }
+                }
+            }
+        } while ((paged = nextPage("GET projects", paged)) != null);
+
+        if (res.isEmpty()) {
+            throw new IllegalStateException("Unable found project for " + projectId + " Verify Configuration sonar.gitlab.project_id or sonar.gitlab.user_token access project");
+        }
+        if (res.size() > 1) {
+            throw new IllegalStateException("Multiple found projects for " + projectId);
+        }
+        return res.get(0);
+    }
+
+    @Override
+    public int fetchCommitDiffs(int projectId, String commitSHA, int maxFiles, DiffHandler handler) throws IOException {
+        // Each page is handed over as soon as it arrives, so only one page of patches is held at a time
+        Paged<GitLabCommitDiff> paged = call("GET commit diffs", null, () -> gitLabAPI.getGitLabAPICommits().getCommitDiffs(projectId, commitSHA, null));
+        // GitLab omits the total when there are too many entries to count them cheaply
+        int total = paged.getTotal() > 0 ? paged.getTotal() : -1;
+        if (maxFiles >= 0 && total > maxFiles) {
+            return total;
+        }
+        do {
+            if (paged.getResults() != null) {
+                for (GitLabCommitDiff diff : paged.getResults()) {
+                    handler.onDiff(diff.getNewPath(), diff.getDiff());
+                }
+            }
+        } while ((paged = nextPage("GET commit diffs", paged)) != null);
+        return total;
+    }
+
+    @Override
+    public void postCommitStatus(int projectId, String commitSHA, String status, @Nullable String refName, String context, String description)
+        throws IOException {
+        call("POST commit status", description,
+            () -> gitLabAPI.getGitLabAPICommits().postCommitStatus(projectId, commitSHA, status, refName, context, null, description));
+    }
+
+    @Override
+    public void postCommitComment(int projectId, String commitSHA, String body, @Nullable String path, @Nullable Integer line, @Nullable String lineType)
+        throws IOException {
+        call("POST commit comment", body,
+            () -> gitLabAPI.getGitLabAPICommits().postCommitComments(projectId, commitSHA, body, path, line, lineType));
+    }
+
+    private <E> Paged<E> nextPage(String endpoint, Paged<E> paged) throws IOException {
+        return call(endpoint, null, paged::nextPage);
+    }
+
+    private <T> T call(String endpoint, @Nullable String body, Profiling.Call<T> call) throws IOException {
+        checkOpen(endpoint);
+        if (rateLimiter != null) {
+            rateLimiter.acquire();
+            checkOpen(endpoint);
+        }
+        return Profiling.gitLabCall(endpoint, body, call);
+    }
+
+    private void checkOpen(String endpoint) throws IOException {
+        if (closed) {
+            throw new IOException("GitLab client closed, " + endpoint + " not sent");
+        }
+    }
+
+    /**
+     * Refuse the next calls, including the next pages of a call in progress. GitLabAPI opens a connection per call and
+     * does not expose it, so a request already sent cannot be interrupted and may still complete.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
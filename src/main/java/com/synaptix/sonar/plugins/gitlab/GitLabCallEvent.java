@@ -0,0 +1,79 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nullable;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one HTTP call to GitLab made by {@link CommitFacade}, through a {@link GitLabClient}.
+ */
+@Name("com.synaptix.sonar.plugins.gitlab.GitLabCall")
+@Label("GitLab Call")
+@Category({"SonarQube", "GitLab"})
+@Description("HTTP call to the GitLab API")
+final class GitLabCallEvent extends Event {
+
+    @Label("Endpoint")
+    String endpoint;
+
+    @Label("Status")
+    @Description("success, or the name of the exception raised by the call, as java-gitlab-api does not expose the HTTP code")
+    String status;
+
+    @Label("Bytes")
+    @Description("Size of the request body")
+    @DataAmount
+    long bytes;
+
+    /**
+     * Perform a GitLab WS call, recorded when JFR is recording. Only called through {@link Profiling#gitLabCall}.
+     */
+    static <T> T record(String endpoint, @Nullable String body, Profiling.Call<T> call) throws IOException {
+        GitLabCallEvent event = new GitLabCallEvent();
+        event.begin();
+        String status = null;
+        try {
+            T res = call.call();
+            status = "success";
+            return res;
+        } catch (IOException | RuntimeException e) {
+            status = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.endpoint = endpoint;
+                event.status = status;
+                event.bytes = body != null ? body.getBytes(StandardCharsets.UTF_8).length : 0;
+                event.commit();
+            }
+        }
+    }
+}
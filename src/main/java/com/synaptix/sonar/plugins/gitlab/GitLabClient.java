@@ -0,0 +1,72 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.annotation.Nullable;
+
+/**
+ * GitLab WS operations used by {@link CommitFacade}, performed in process or by a shared {@link GitLabPublisherDaemon}.
+ */
+interface GitLabClient extends Closeable {
+
+    Project resolveProject(String projectId) throws IOException;
+
+    /**
+     * Hand over the diff of each file changed by the commit, unless the first page of diffs reports more than
+     * {@code maxFiles} changed files.
+     *
+     * @param maxFiles maximum number of changed files for which diffs are handed over, negative for no limit
+     * @return number of changed files reported by the first page, -1 if GitLab did not report it
+     */
+    int fetchCommitDiffs(int projectId, String commitSHA, int maxFiles, DiffHandler handler) throws IOException;
+
+    void postCommitStatus(int projectId, String commitSHA, String status, @Nullable String refName, String context, String description) throws IOException;
+
+    void postCommitComment(int projectId, String commitSHA, String body, @Nullable String path, @Nullable Integer line, @Nullable String lineType)
+        throws IOException;
+
+    @FunctionalInterface
+    interface DiffHandler {
+
+        void onDiff(String newPath, @Nullable String diff) throws IOException;
+    }
+
+    final class Project {
+
+        private final int id;
+        private final String webUrl;
+
+        Project(int id, String webUrl) {
+            this.id = id;
+            this.webUrl = webUrl;
+        }
+
+        int id() {
+            return id;
+        }
+
+        String webUrl() {
+            return webUrl;
+        }
+    }
+}
@@ -42,6 +42,12 @@ import org.sonar.api.PropertyType;
       name = "GitLab Max Global Issues",
       description = "Max issues to show in global comment.",
       type = PropertyType.INTEGER),
+    @Property(
+      key = GitLabPlugin.GITLAB_MAX_INLINE_COMMENTS,
+      defaultValue = "-1",
+      name = "GitLab Max Inline Comments",
+      description = "Max inline comments to post on the commit, most severe issues first. Others are counted in global comment. Negative for no limit.",
+      type = PropertyType.INTEGER),
     @Property(
       key = GitLabPlugin.GITLAB_USER_TOKEN,
       name = "GitLab User Token",
@@ -68,18 +74,87 @@ import org.sonar.api.PropertyType;
       defaultValue = "true",
       name = "GitLab Ignore file",
       description = "Ignore issues on files no modified by the commit.",
-      type = PropertyType.BOOLEAN)
+      type = PropertyType.BOOLEAN),
+    @Property(
+      key = GitLabPlugin.GITLAB_COMMENT_PER_FILE,
+      defaultValue = "false",
+      name = "GitLab Comment Per File",
+      description = "Post one comment per file with a table of its issues instead of one comment per line.",
+      type = PropertyType.BOOLEAN),
+    @Property(
+      key = GitLabPlugin.GITLAB_PUBLISHER_PORT,
+      name = "GitLab Publisher Daemon Port",
+      description = "Local port of a shared GitLab publisher daemon. GitLab is called directly when not set or when no daemon listens on it.",
+      type = PropertyType.INTEGER),
+    @Property(
+      key = GitLabPlugin.GITLAB_PUBLISHER_SECRET_FILE,
+      name = "GitLab Publisher Daemon Secret File",
+      description = "Secret file written by the GitLab publisher daemon, only readable by its owner. Defaults to ~/.sonar-gitlab/publisher-<port>.secret."),
+    @Property(
+      key = GitLabPlugin.GITLAB_SUMMARY_THRESHOLD,
+      defaultValue = "1000",
+      name = "GitLab Summary Mode Threshold",
+      description = "Number of changed files above which only the global comment and the most severe inline comments are posted. Negative to disable.",
+      type = PropertyType.INTEGER),
+    @Property(
+      key = GitLabPlugin.GITLAB_SUMMARY_MAX_INLINE_COMMENTS,
+      defaultValue = "20",
+      name = "GitLab Summary Mode Max Inline Comments",
+      description = "Max inline comments to post on the commit in summary mode.",
+      type = PropertyType.INTEGER),
+    @Property(
+      key = GitLabPlugin.GITLAB_STATUS_ONLY_THRESHOLD,
+      defaultValue = "10000",
+      name = "GitLab Status Only Threshold",
+      description = "Number of changed files above which only the commit status is posted. Negative to disable.",
+      type = PropertyType.INTEGER),
+    @Property(
+      key = GitLabPlugin.GITLAB_STATUS_ONLY_ALL_FILES,
+      defaultValue = "false",
+      name = "GitLab Status Only All Files",
+      description = "When only the commit status is posted, changed files are not known: count the issues of all files instead of none. Ignored unless ignore file is enabled.",
+      type = PropertyType.BOOLEAN),
+    @Property(
+      key = GitLabPlugin.GITLAB_EXPORT_REPORT,
+      defaultValue = "false",
+      name = "GitLab Export Report",
+      description = "Export the new issues with their GitLab url to a JSON lines file in the scanner work directory.",
+      type = PropertyType.BOOLEAN),
+    @Property(
+      key = GitLabPlugin.GITLAB_TIME_BUDGET,
+      defaultValue = "0",
+      name = "GitLab Time Budget",
+      description = "Total time in seconds the plugin may spend calling GitLab during an analysis. 0 for no limit.",
+      type = PropertyType.INTEGER),
+    @Property(
+      key = GitLabPlugin.GITLAB_JOURNAL_DIR,
+      name = "GitLab Journal Directory",
+      description = "Directory of the publishing journals, kept between analyses of a commit so that a rerun skips the comments already published. "
+        + "Defaults to the scanner work directory, which is cleaned at each analysis.",
+      project = true,
+      global = false)
   })
 public class GitLabPlugin implements Plugin {
 
     public static final String GITLAB_URL = "sonar.gitlab.url";
     public static final String GITLAB_IGNORE_CERT = "sonar.gitlab.ignore_certificate";
     public static final String GITLAB_MAX_GLOBAL_ISSUES = "sonar.gitlab.max_global_issues";
+    public static final String GITLAB_MAX_INLINE_COMMENTS = "sonar.gitlab.max_inline_comments";
     public static final String GITLAB_USER_TOKEN = "sonar.gitlab.user_token";
     public static final String GITLAB_PROJECT_ID = "sonar.gitlab.project_id";
     public static final String GITLAB_COMMIT_SHA = "sonar.gitlab.commit_sha";
     public static final String GITLAB_REF_NAME = "sonar.gitlab.ref_name";
     public static final String GITLAB_IGNORE_FILE = "sonar.gitlab.ignore_file";
+    public static final String GITLAB_COMMENT_PER_FILE = "sonar.gitlab.comment_per_file";
+    public static final String GITLAB_PUBLISHER_PORT = "sonar.gitlab.publisher_port";
+    public static final String GITLAB_PUBLISHER_SECRET_FILE = "sonar.gitlab.publisher_secret_file";
+    public static final String GITLAB_SUMMARY_THRESHOLD = "sonar.gitlab.summary_threshold";
+    public static final String GITLAB_SUMMARY_MAX_INLINE_COMMENTS = "sonar.gitlab.summary_max_inline_comments";
+    public static final String GITLAB_STATUS_ONLY_THRESHOLD = "sonar.gitlab.status_only_threshold";
+    public static final String GITLAB_STATUS_ONLY_ALL_FILES = "sonar.gitlab.status_only_all_files";
+    public static final String GITLAB_EXPORT_REPORT = "sonar.gitlab.export_report";
+    public static final String GITLAB_TIME_BUDGET = "sonar.gitlab.time_budget";
+    public static final String GITLAB_JOURNAL_DIR = "sonar.gitlab.journal_dir";
 
     @Override
     public void define(Context context) {
@@ -80,4 +80,51 @@ public class GitLabPluginConfiguration {
     public boolean ignoreFileNotInCommit() {
         return settings.getBoolean(GitLabPlugin.GITLAB_IGNORE_FILE);
     }
+
+    public int maxInlineComments() {
+        return settings.getInt(GitLabPlugin.GITLAB_MAX_INLINE_COMMENTS);
+    }
+
+    public boolean commentPerFile() {
+        return settings.getBoolean(GitLabPlugin.GITLAB_COMMENT_PER_FILE);
+    }
+
+    public int summaryThreshold() {
+        return settings.getInt(GitLabPlugin.GITLAB_SUMMARY_THRESHOLD);
+    }
+
+    public int summaryMaxInlineComments() {
+        return settings.getInt(GitLabPlugin.GITLAB_SUMMARY_MAX_INLINE_COMMENTS);
+    }
+
+    public int statusOnlyThreshold() {
+        return settings.getInt(GitLabPlugin.GITLAB_STATUS_ONLY_THRESHOLD);
+    }
+
+    public boolean statusOnlyAllFiles() {
+        return settings.getBoolean(GitLabPlugin.GITLAB_STATUS_ONLY_ALL_FILES);
+    }
+
+    @CheckForNull
+    public Integer publisherPort() {
+        return settings.hasKey(GitLabPlugin.GITLAB_PUBLISHER_PORT) ? settings.getInt(GitLabPlugin.GITLAB_PUBLISHER_PORT) : null;
+    }
+
+    @CheckForNull
+    public String publisherSecretFile() {
+        return settings.getString(GitLabPlugin.GITLAB_PUBLISHER_SECRET_FILE);
+    }
+
+    public boolean exportReport() {
+        return settings.getBoolean(GitLabPlugin.GITLAB_EXPORT_REPORT);
+    }
+
+    public int timeBudget() {
+        return settings.getInt(GitLabPlugin.GITLAB_TIME_BUDGET);
+    }
+
+    @CheckForNull
+    public String journalDir() {
+        return settings.getString(GitLabPlugin.GITLAB_JOURNAL_DIR);
+    }
 }
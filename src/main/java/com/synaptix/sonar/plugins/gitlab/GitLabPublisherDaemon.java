@@ -0,0 +1,215 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static com.synaptix.sonar.plugins.gitlab.DaemonProtocol.readInteger;
+import static com.synaptix.sonar.plugins.gitlab.DaemonProtocol.readString;
+import static com.synaptix.sonar.plugins.gitlab.DaemonProtocol.writeString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Long-lived local process shared by the scanners running on a runner. It keeps one {@link DirectGitLabClient} per
+ * GitLab url and user token, with its resolved projects, and a single rate limiter for all the GitLab calls.
+ * <p>
+ * Usage: {@code java -cp <plugin jar>:<java-gitlab-api jar and its dependencies> com.synaptix.sonar.plugins.gitlab.GitLabPublisherDaemon <port> [calls per second] [secret file]}
+ * <p>
+ * The daemon only listens on the loopback interface as user tokens are sent to it, and only serves the scanners which
+ * can read the secret it writes at startup in a file only readable by its user, see {@link DaemonProtocol}.
+ */
+public final class GitLabPublisherDaemon {
+
+    private static final Logger LOG = Logger.getLogger(GitLabPublisherDaemon.class.getName());
+
+    private static final int AUTHENTICATION_TIMEOUT_MS = 5000;
+
+    private final byte[] secret;
+    private final ClientFactory clientFactory;
+    private final Map<String, GitLabClient> clients = new ConcurrentHashMap<>();
+
+    GitLabPublisherDaemon(byte[] secret, ClientFactory clientFactory) {
+        this.secret = secret;
+        this.clientFactory = clientFactory;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: GitLabPublisherDaemon <port> [calls per second] [secret file]");
+            System.exit(1);
+        }
+        int port = Integer.parseInt(args[0]);
+        double callsPerSecond = args.length > 1 ? Double.parseDouble(args[1]) : 10;
+        Path secretFile = args.length > 2 ? Paths.get(args[2]) : DaemonProtocol.defaultSecretFile(port);
+        byte[] secret = DaemonProtocol.createSecret(secretFile);
+        LOG.info("GitLab publisher daemon secret written to " + secretFile);
+        RateLimiter rateLimiter = new RateLimiter(callsPerSecond);
+        GitLabPublisherDaemon daemon = new GitLabPublisherDaemon(secret,
+            (url, userToken, ignoreCertificate) -> new DirectGitLabClient(url, userToken, ignoreCertificate, rateLimiter));
+        try (ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+            daemon.serve(serverSocket);
+        }
+    }
+
+    void serve(ServerSocket serverSocket) throws IOException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            LOG.info("GitLab publisher daemon listening on " + serverSocket.getLocalSocketAddress());
+            while (!Thread.currentThread().isInterrupted()) {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> handle(socket));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setSoTimeout(AUTHENTICATION_TIMEOUT_MS);
+            if (!DaemonProtocol.authenticateClient(in, out, secret)) {
+                LOG.warning("Connection refused, the scanner does not know the daemon secret");
+                return;
+            }
+            s.setSoTimeout(0);
+            while (true) {
+                String operation;
+                try {
+                    operation = in.readUTF();
+                } catch (EOFException e) {
+                    // Scanner is done
+                    return;
+                }
+                String url = readString(in);
+                String userToken = readString(in);
+                boolean ignoreCertificate = in.readBoolean();
+                GitLabClient client = clients.computeIfAbsent(url + '\n' + userToken + '\n' + ignoreCertificate,
+                    k -> clientFactory.create(url, userToken, ignoreCertificate));
+                handle(operation, client, in, out);
+                out.flush();
+            }
+        } catch (IOException e) {
+            LOG.log(Level.FINE, "Connection with scanner closed", e);
+        }
+    }
+
+    private static void handle(String operation, GitLabClient client, DataInputStream in, DataOutputStream out) throws IOException {
+        // Arguments are fully read before calling GitLab so that a failure does not break the stream
+        switch (operation) {
+        case DaemonProtocol.RESOLVE_PROJECT: {
+            String projectId = readString(in);
+            perform(out, () -> {
+                GitLabClient.Project project = client.resolveProject(projectId);
+                out.writeByte(DaemonProtocol.OK);
+                out.writeInt(project.id());
+                writeString(out, project.webUrl());
+            });
+            break;
+        }
+        case DaemonProtocol.COMMIT_DIFFS: {
+            int projectId = in.readInt();
+            String commitSHA = readString(in);
+            int maxFiles = in.readInt();
+            perform(out, () -> {
+                int total = client.fetchCommitDiffs(projectId, commitSHA, maxFiles, (newPath, diff) -> {
+                    out.writeByte(DaemonProtocol.DIFF);
+                    writeString(out, newPath);
+                    writeString(out, diff);
+                });
+                out.writeByte(DaemonProtocol.OK);
+                out.writeInt(total);
+            });
+            break;
+        }
+        case DaemonProtocol.COMMIT_STATUS: {
+            int projectId = in.readInt();
+            String commitSHA = readString(in);
+            String status = readString(in);
+            String refName = readString(in);
+            String context = readString(in);
+            String description = readString(in);
+            perform(out, () -> {
+                client.postCommitStatus(projectId, commitSHA, status, refName, context, description);
+                out.writeByte(DaemonProtocol.OK);
+            });
+            break;
+        }
+        case DaemonProtocol.COMMIT_COMMENT: {
+            int projectId = in.readInt();
+            String commitSHA = readString(in);
+            String body = readString(in);
+            String path = readString(in);
+            Integer line = readInteger(in);
+            String lineType = readString(in);
+            perform(out, () -> {
+                client.postCommitComment(projectId, commitSHA, body, path, line, lineType);
+                out.writeByte(DaemonProtocol.OK);
+            });
+            break;
+        }
+        default:
+            throw new IOException("Unknown operation " + operation);
+        }
+    }
+
+    private static void perform(DataOutputStream out, Operation operation) throws IOException {
+        try {
+            operation.perform();
+        } catch (IllegalStateException e) {
+            out.writeByte(DaemonProtocol.ILLEGAL_STATE);
+            writeString(out, e.getMessage());
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "GitLab call failed", e);
+            out.writeByte(DaemonProtocol.IO_ERROR);
+            writeString(out, e.toString());
+        }
+    }
+
+    @FunctionalInterface
+    interface ClientFactory {
+
+        GitLabClient create(@Nullable String url, @Nullable String userToken, boolean ignoreCertificate);
+    }
+
+    @FunctionalInterface
+    private interface Operation {
+
+        void perform() throws IOException;
+    }
+}
@@ -41,6 +41,8 @@ public class GlobalReport {
   private int[] newIssuesBySeverity = new int[Severity.values().length];
   private Map<Severity, List<String>> notReportedOnDiffMap = new HashMap<>();
   private int notReportedIssueCount = 0;
+  private int[] overBudgetIssuesBySeverity = new int[Severity.values().length];
+  private int overBudgetIssueCount = 0;
 
   public GlobalReport(int maxGlobalIssues, MarkDownUtils markDownUtils) {
     super();
@@ -83,6 +85,17 @@ public class GlobalReport {
         sb.append("* ... ").append(notReportedDisplayedIssueCount).append(" more\n");
       }
     }
+    if (overBudgetIssueCount > 0) {
+      sb.append("\nNote: ").append(overBudgetIssueCount).append(" issue" + (overBudgetIssueCount > 1 ? "s" : ""))
+          .append(" could not be reported as comments because the maximum number of inline comments was reached:\n");
+      for (Severity severity : Severity.values()) {
+        int issueCount = overBudgetIssuesBySeverity[severity.ordinal()];
+        if (issueCount > 0) {
+          sb.append("* ").append(MarkDownUtils.getEmojiForSeverity(severity)).append(" ").append(issueCount).append(" ")
+              .append(getTextForSeverity(severity)).append("\n");
+        }
+      }
+    }
     return sb.toString();
   }
 
@@ -150,22 +163,33 @@ public class GlobalReport {
     }
   }
 
-  public void process(PostJobIssue issue, @Nullable String gitLabUrl, boolean reportedOnDiff) {
-    increment(issue.severity());
+  public void process(IndexedIssue indexedIssue, @Nullable String gitLabUrl, boolean reportedOnDiff) {
+    Severity severity = indexedIssue.severity();
+    increment(severity);
     if (!reportedOnDiff) {
       notReportedIssueCount++;
 
-      List<String> notReportedOnDiffs = notReportedOnDiffMap.get(issue.severity());
+      List<String> notReportedOnDiffs = notReportedOnDiffMap.get(severity);
       if (notReportedOnDiffs == null) {
         notReportedOnDiffs = new ArrayList<>();
-        notReportedOnDiffMap.put(issue.severity(), notReportedOnDiffs);
+        notReportedOnDiffMap.put(severity, notReportedOnDiffs);
       }
 
-      notReportedOnDiffs.add(new StringBuilder().append("* ").append(markDownUtils.globalIssue(issue.severity(),
-          issue.message(), issue.ruleKey().toString(), gitLabUrl, issue.componentKey())).toString());
+      PostJobIssue issue = indexedIssue.issue();
+      notReportedOnDiffs.add(new StringBuilder().append("* ").append(markDownUtils.globalIssue(severity,
+          issue.message(), indexedIssue.ruleKey(), gitLabUrl, issue.componentKey())).toString());
     }
   }
 
+  /**
+   * Count an issue which is located on the diff but was not reported inline because the inline comment budget is spent.
+   */
+  public void processOverBudget(IndexedIssue indexedIssue) {
+    increment(indexedIssue.severity());
+    overBudgetIssueCount++;
+    overBudgetIssuesBySeverity[indexedIssue.severity().ordinal()]++;
+  }
+
   public boolean hasNewIssue() {
     return newIssues(BLOCKER) + newIssues(CRITICAL) + newIssues(MAJOR) + newIssues(MINOR) + newIssues(INFO) > 0;
   }
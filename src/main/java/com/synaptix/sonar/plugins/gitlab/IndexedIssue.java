@@ -0,0 +1,146 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.rule.RuleKey;
+
+/**
+ * Issue with its sort key and rule key computed once, so that sorting and grouping run on primitives. Issues are sorted
+ * most severe first, then by component key, then by line (issues without line first).
+ */
+public final class IndexedIssue {
+
+    private static final int SEVERITY_SHIFT = 60;
+    private static final int COMPONENT_SHIFT = 31;
+    private static final long COMPONENT_MASK = (1L << (SEVERITY_SHIFT - COMPONENT_SHIFT)) - 1;
+    private static final long LINE_MASK = (1L << COMPONENT_SHIFT) - 1;
+    private static final int MAX_SEVERITY = Severity.values().length - 1;
+
+    private final PostJobIssue issue;
+    private final Severity severity;
+    private final long sortKey;
+    private final int componentIndex;
+    private final String ruleKey;
+
+    private IndexedIssue(PostJobIssue issue, long sortKey, int componentIndex, String ruleKey) {
+        this.issue = issue;
+        this.severity = issue.severity();
+        this.sortKey = sortKey;
+        this.componentIndex = componentIndex;
+        this.ruleKey = ruleKey;
+    }
+
+    /**
+     * Build the records of the given issues and return them sorted. Component keys are interned into indexes
+     * following their natural order, and rule keys are converted to string once per distinct rule.
+     */
+    public static List<IndexedIssue> sort(List<PostJobIssue> issues) {
+        String[] componentKeys = issues.stream().map(PostJobIssue::componentKey).distinct().sorted().toArray(String[]::new);
+        if (componentKeys.length > COMPONENT_MASK) {
+            throw new IllegalStateException("Too many components with issues: " + componentKeys.length);
+        }
+        Map<String, Integer> componentIndexes = new HashMap<>(componentKeys.length * 2);
+        for (int i = 0; i < componentKeys.length; i++) {
+            componentIndexes.put(componentKeys[i], i);
+        }
+
+        Map<RuleKey, String> ruleKeys = new HashMap<>();
+        IndexedIssue[] res = new IndexedIssue[issues.size()];
+        int i = 0;
+        for (PostJobIssue issue : issues) {
+            int componentIndex = componentIndexes.get(issue.componentKey());
+            String ruleKey = ruleKeys.computeIfAbsent(issue.ruleKey(), RuleKey::toString);
+            res[i++] = new IndexedIssue(issue, sortKey(issue.severity(), componentIndex, issue.line()), componentIndex, ruleKey);
+        }
+        // Stable sort, issues with same key keep their original order
+        Arrays.sort(res, (left, right) -> Long.compare(left.sortKey, right.sortKey));
+        return new ArrayList<>(Arrays.asList(res));
+    }
+
+    /**
+     * Positions in the given sorted issues, ordered by component index. Issues of a component keep their order, most
+     * severe first.
+     */
+    public static int[] componentOrder(List<IndexedIssue> sortedIssues) {
+        int components = 0;
+        for (IndexedIssue indexedIssue : sortedIssues) {
+            components = Math.max(components, indexedIssue.componentIndex + 1);
+        }
+        // Counting sort, stable and linear in the number of issues
+        int[] starts = new int[components + 1];
+        for (IndexedIssue indexedIssue : sortedIssues) {
+            starts[indexedIssue.componentIndex + 1]++;
+        }
+        for (int c = 0; c < components; c++) {
+            starts[c + 1] += starts[c];
+        }
+        int[] res = new int[sortedIssues.size()];
+        for (int i = 0; i < sortedIssues.size(); i++) {
+            res[starts[sortedIssues.get(i).componentIndex]++] = i;
+        }
+        return res;
+    }
+
+    private static long sortKey(Severity severity, int componentIndex, Integer line) {
+        // Line 0 is kept for issues without line, so that they come first in their component
+        long packedLine = line == null ? 0 : Math.min((long) line + 1, LINE_MASK);
+        return ((long) (MAX_SEVERITY - severity.ordinal()) << SEVERITY_SHIFT)
+            | ((long) componentIndex << COMPONENT_SHIFT)
+            | packedLine;
+    }
+
+    public PostJobIssue issue() {
+        return issue;
+    }
+
+    public Severity severity() {
+        return severity;
+    }
+
+    public String ruleKey() {
+        return ruleKey;
+    }
+
+    public long sortKey() {
+        return sortKey;
+    }
+
+    /**
+     * Component and line of the issue packed in one key, without the severity.
+     */
+    public long positionKey() {
+        return sortKey & ((1L << SEVERITY_SHIFT) - 1);
+    }
+
+    /**
+     * Index of the component key among the sorted distinct component keys of the sorted issues.
+     */
+    public int componentIndex() {
+        return componentIndex;
+    }
+}
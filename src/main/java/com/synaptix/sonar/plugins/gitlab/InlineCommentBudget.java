@@ -0,0 +1,48 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+/**
+ * Number of inline comments which may still be posted on the commit.
+ */
+final class InlineCommentBudget {
+
+    private final int max;
+    private int used;
+
+    /**
+     * @param max maximum number of inline comments, negative for no limit
+     */
+    InlineCommentBudget(int max) {
+        this.max = max;
+    }
+
+    boolean tryAcquire() {
+        if (isExhausted()) {
+            return false;
+        }
+        used++;
+        return true;
+    }
+
+    boolean isExhausted() {
+        return max >= 0 && used >= max;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for the aggregation of new issues into inline comments and global report.
+ */
+@Name("com.synaptix.sonar.plugins.gitlab.IssueAggregation")
+@Label("Issue Aggregation")
+@Category({"SonarQube", "GitLab"})
+@Description("Aggregation of new issues into inline comments and global report")
+final class IssueAggregationEvent extends Event implements Profiling.IssueAggregation {
+
+    @Label("Issues")
+    int issues;
+
+    @Label("Files")
+    @Description("Number of files with inline comments")
+    int files;
+
+    static IssueAggregationEvent start() {
+        IssueAggregationEvent event = new IssueAggregationEvent();
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void finish(int issues, int files) {
+        end();
+        if (shouldCommit()) {
+            this.issues = issues;
+            this.files = files;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.annotation.Nullable;
+
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+
+/**
+ * Write processed issues to a JSON lines file as they are aggregated, one object per issue, so that downstream tools
+ * do not have to read the GitLab comments back.
+ */
+final class IssueReportExporter implements Closeable {
+
+    private final File file;
+    private final Writer writer;
+
+    private IssueReportExporter(File file) throws IOException {
+        this.file = file;
+        this.writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(file.toPath()), StandardCharsets.UTF_8));
+    }
+
+    static IssueReportExporter open(File workDir, String commitSHA) throws IOException {
+        File dir = new File(workDir, "gitlab");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        return new IssueReportExporter(new File(dir, commitSHA.replaceAll("[^A-Za-z0-9_.-]", "_") + "-issues.jsonl"));
+    }
+
+    File file() {
+        return file;
+    }
+
+    void write(IndexedIssue indexedIssue, @Nullable String gitLabUrl, boolean reportedInline) {
+        PostJobIssue issue = indexedIssue.issue();
+        StringBuilder sb = new StringBuilder("{");
+        appendField(sb, "severity", indexedIssue.severity().name()).append(',');
+        appendField(sb, "rule", indexedIssue.ruleKey()).append(',');
+        appendField(sb, "component", issue.componentKey()).append(',');
+        sb.append("\"line\":").append(issue.line()).append(',');
+        appendField(sb, "message", issue.message()).append(',');
+        sb.append("\"reportedInline\":").append(reportedInline).append(',');
+        appendField(sb, "url", gitLabUrl).append("}\n");
+        try {
+            writer.write(sb.toString());
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write issue report " + file, e);
+        }
+    }
+
+    private static StringBuilder appendField(StringBuilder sb, String name, @Nullable String value) {
+        sb.append('"').append(name).append("\":");
+        if (value == null) {
+            return sb.append("null");
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                sb.append("\\\"");
+                break;
+            case '\\':
+                sb.append("\\\\");
+                break;
+            case '\n':
+                sb.append("\\n");
+                break;
+            case '\r':
+                sb.append("\\r");
+                break;
+            case '\t':
+                sb.append("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    sb.append(String.format("\\u%04x", (int) c));
+                } else {
+                    sb.append(c);
+                }
+                break;
+            }
+        }
+        return sb.append('"');
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+}
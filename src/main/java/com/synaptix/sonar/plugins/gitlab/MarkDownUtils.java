@@ -34,6 +34,8 @@ import org.sonar.api.config.Settings;
 @ScannerSide
 public class MarkDownUtils {
 
+  public static final String INLINE_ISSUE_TABLE_HEADER = "| Line | Issue |\n| ---: | --- |\n";
+
   private final String ruleUrlPrefix;
 
   public MarkDownUtils(Settings settings) {
@@ -56,6 +58,22 @@ public class MarkDownUtils {
     return sb.toString();
   }
 
+  /**
+   * Row of the table of issues of a file, see {@link #INLINE_ISSUE_TABLE_HEADER}.
+   */
+  public String inlineIssueRow(Severity severity, String message, String ruleKey, int line, @Nullable String url) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("| ");
+    if (url != null) {
+      sb.append("[L").append(line).append("](").append(url).append(")");
+    } else {
+      sb.append("L").append(line);
+    }
+    // A line break or a pipe in the message would end the row or the cell
+    sb.append(" | ").append(inlineIssue(severity, message, ruleKey).replace("|", "\\|").replaceAll("\r\n|\r|\n", " ")).append(" |");
+    return sb.toString();
+  }
+
   public String globalIssue(Severity severity, String message, String ruleKey, @Nullable String url, String componentKey) {
     String ruleLink = getRuleLink(ruleKey);
     StringBuilder sb = new StringBuilder();
@@ -0,0 +1,99 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.IOException;
+import java.util.BitSet;
+
+import javax.annotation.Nullable;
+
+/**
+ * Entry point of the JFR events of the plugin. Event classes are only loaded when the runtime provides {@code jdk.jfr},
+ * so the plugin still runs on Java 8 scanners without it, with nothing recorded.
+ */
+final class Profiling {
+
+    static final boolean JFR_AVAILABLE = isJfrAvailable();
+
+    private static final DiffParsing NO_DIFF_PARSING = (path, patch, lines) -> {
+    };
+    private static final IssueAggregation NO_ISSUE_AGGREGATION = (issues, files) -> {
+    };
+    private static final CommentPublishing NO_COMMENT_PUBLISHING = comments -> {
+    };
+
+    private Profiling() {
+        // Only static methods
+    }
+
+    private static boolean isJfrAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, Profiling.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Perform a GitLab WS call, recorded as a {@link GitLabCallEvent} when JFR is recording.
+     *
+     * @param body request body, only measured when the event is recorded
+     */
+    static <T> T gitLabCall(String endpoint, @Nullable String body, Call<T> call) throws IOException {
+        return JFR_AVAILABLE ? GitLabCallEvent.record(endpoint, body, call) : call.call();
+    }
+
+    static DiffParsing diffParsing() {
+        return JFR_AVAILABLE ? DiffParsingEvent.start() : NO_DIFF_PARSING;
+    }
+
+    static IssueAggregation issueAggregation() {
+        return JFR_AVAILABLE ? IssueAggregationEvent.start() : NO_ISSUE_AGGREGATION;
+    }
+
+    static CommentPublishing commentPublishing() {
+        return JFR_AVAILABLE ? CommentPublishingEvent.start() : NO_COMMENT_PUBLISHING;
+    }
+
+    @FunctionalInterface
+    interface Call<T> {
+
+        T call() throws IOException;
+    }
+
+    @FunctionalInterface
+    interface DiffParsing {
+
+        void finish(String path, String patch, BitSet lines);
+    }
+
+    @FunctionalInterface
+    interface IssueAggregation {
+
+        void finish(int issues, int files);
+    }
+
+    @FunctionalInterface
+    interface CommentPublishing {
+
+        void finish(int comments);
+    }
+}
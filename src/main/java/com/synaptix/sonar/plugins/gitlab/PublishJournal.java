@@ -0,0 +1,150 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import javax.annotation.Nullable;
+
+/**
+ * Append-only journal of the GitLab operations of a commit, kept in the scanner work dir.
+ * <p>
+ * All planned operations are written before being published, then each published operation is acknowledged. A rerun on
+ * the same commit reads the acknowledgements and skips the operations already published.
+ * <p>
+ * Format, one entry per line:
+ * <pre>
+ * P &lt;key&gt; &lt;type&gt; &lt;path&gt; &lt;line&gt; &lt;status&gt; &lt;base64 body&gt;
+ * A &lt;key&gt;
+ * </pre>
+ */
+final class PublishJournal implements Closeable {
+
+    private static final String PLANNED = "P";
+    private static final String ACKNOWLEDGED = "A";
+    private static final String SEPARATOR = "\t";
+    private static final String NONE = "-";
+
+    private final File file;
+    private final Set<String> acknowledgedKeys;
+    private final Map<String, PublishOperation> plannedOperations = new LinkedHashMap<>();
+    private final FileOutputStream out;
+    private final Writer writer;
+
+    private PublishJournal(File file, Set<String> acknowledgedKeys) throws IOException {
+        this.file = file;
+        this.acknowledgedKeys = acknowledgedKeys;
+        this.out = new FileOutputStream(file, true);
+        this.writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Open the journal of the commit in the given directory, reading the acknowledgements of previous runs.
+     */
+    static PublishJournal open(File dir, String commitSHA) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Unable to create directory " + dir);
+        }
+        File file = new File(dir, commitSHA.replaceAll("[^A-Za-z0-9_.-]", "_") + ".journal");
+        return new PublishJournal(file, readAcknowledgedKeys(file));
+    }
+
+    private static Set<String> readAcknowledgedKeys(File file) throws IOException {
+        Set<String> keys = new HashSet<>();
+        if (!file.exists()) {
+            return keys;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // A truncated last entry left by a crash is ignored
+                String[] fields = line.split(SEPARATOR);
+                if (fields.length == 2 && ACKNOWLEDGED.equals(fields[0])) {
+                    keys.add(fields[1]);
+                }
+            }
+        }
+        return keys;
+    }
+
+    File file() {
+        return file;
+    }
+
+    synchronized boolean isAcknowledged(PublishOperation operation) {
+        return acknowledgedKeys.contains(operation.key());
+    }
+
+    synchronized boolean hasAcknowledgements() {
+        return !acknowledgedKeys.isEmpty();
+    }
+
+    synchronized void plan(List<PublishOperation> operations) throws IOException {
+        for (PublishOperation operation : operations) {
+            writer.write(PLANNED + SEPARATOR + operation.key() + SEPARATOR + operation.type() + SEPARATOR + field(operation.path()) + SEPARATOR
+                + field(operation.line()) + SEPARATOR + field(operation.status()) + SEPARATOR
+                + Base64.getEncoder().encodeToString(operation.body().getBytes(StandardCharsets.UTF_8)) + "\n");
+            plannedOperations.put(operation.key(), operation);
+        }
+        sync();
+    }
+
+    synchronized void acknowledge(PublishOperation operation) throws IOException {
+        writer.write(ACKNOWLEDGED + SEPARATOR + operation.key() + "\n");
+        sync();
+        acknowledgedKeys.add(operation.key());
+    }
+
+    /**
+     * Operations planned by this run and not acknowledged yet.
+     */
+    synchronized List<PublishOperation> unacknowledged() {
+        return plannedOperations.values().stream().filter(o -> !acknowledgedKeys.contains(o.key())).collect(Collectors.toList());
+    }
+
+    private void sync() throws IOException {
+        writer.flush();
+        out.getChannel().force(false);
+    }
+
+    private static String field(@Nullable Object value) {
+        return value != null ? value.toString() : NONE;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * GitLab operation planned by the post-job: inline comment, global comment or commit status.
+ */
+final class PublishOperation {
+
+    enum Type {
+        INLINE_COMMENT, GLOBAL_COMMENT, STATUS
+    }
+
+    private final Type type;
+    private final String path;
+    private final Integer line;
+    private final String status;
+    private final String body;
+    private final String key;
+
+    private PublishOperation(Type type, @Nullable String path, @Nullable Integer line, @Nullable String status, String body) {
+        this.type = type;
+        this.path = path;
+        this.line = line;
+        this.status = status;
+        this.body = body;
+        this.key = computeKey();
+    }
+
+    static PublishOperation inlineComment(String path, int line, String body) {
+        return new PublishOperation(Type.INLINE_COMMENT, path, line, null, body);
+    }
+
+    static PublishOperation globalComment(String body) {
+        return new PublishOperation(Type.GLOBAL_COMMENT, null, null, null, body);
+    }
+
+    static PublishOperation status(String status, String description) {
+        return new PublishOperation(Type.STATUS, null, null, status, description);
+    }
+
+    Type type() {
+        return type;
+    }
+
+    @CheckForNull
+    String path() {
+        return path;
+    }
+
+    @CheckForNull
+    Integer line() {
+        return line;
+    }
+
+    @CheckForNull
+    String status() {
+        return status;
+    }
+
+    String body() {
+        return body;
+    }
+
+    /**
+     * Key identifying the operation by its content, the same operation planned again by a rerun has the same key.
+     */
+    String key() {
+        return key;
+    }
+
+    private String computeKey() {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            for (Object field : new Object[] {type, path, line, status, body}) {
+                digest.update(String.valueOf(field).getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
+            }
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest.digest()) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not supported", e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+/**
+ * How much is published on the commit, chosen from the number of files changed by the commit so that the cost of the
+ * post-job stays bounded on oversized commits.
+ */
+public enum ReportingMode {
+
+    /**
+     * Inline comments, global comment and status.
+     */
+    FULL,
+    /**
+     * Global comment, status and inline comments for the most severe issues only.
+     */
+    SUMMARY,
+    /**
+     * Status only, the diff of the commit is not fetched.
+     */
+    STATUS_ONLY;
+
+    /**
+     * @param changedFiles number of files changed by the commit
+     * @param summaryThreshold number of changed files above which {@link #SUMMARY} is used, negative to disable
+     * @param statusOnlyThreshold number of changed files above which {@link #STATUS_ONLY} is used, negative to disable
+     */
+    static ReportingMode select(int changedFiles, int summaryThreshold, int statusOnlyThreshold) {
+        if (statusOnlyThreshold >= 0 && changedFiles > statusOnlyThreshold) {
+            return STATUS_ONLY;
+        }
+        if (summaryThreshold >= 0 && changedFiles > summaryThreshold) {
+            return SUMMARY;
+        }
+        return FULL;
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Publishing stage of the post-job: the inline comments of each file are handed off as soon as they are built, and
+ * created by a dedicated thread while the comments of the next files are built. The queue is bounded, so the post-job
+ * waits when GitLab is slower than it.
+ * <p>
+ * Comments are planned in the journal before being queued and acknowledged once created.
+ */
+final class ReviewCommentPublisher implements Closeable {
+
+    static final int QUEUE_CAPACITY = 64;
+
+    private static final List<PublishOperation> END = new ArrayList<>(0);
+
+    private final CommitFacade commitFacade;
+    private final PublishJournal journal;
+    private final BlockingQueue<List<PublishOperation>> queue;
+    private final Thread thread;
+    private volatile RuntimeException failure;
+    private volatile boolean cancelled;
+    private boolean ended;
+    private int comments;
+
+    ReviewCommentPublisher(CommitFacade commitFacade, PublishJournal journal, int capacity) {
+        this.commitFacade = commitFacade;
+        this.journal = journal;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::run, "GitLab comment publisher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Plan the inline comments of a complete file and queue them, waiting if the queue is full. After a failure they
+     * are only planned, so that aggregation completes and the failure is reported by {@link #finish()}.
+     */
+    void submit(List<PublishOperation> reviewComments) throws IOException {
+        if (reviewComments.isEmpty()) {
+            return;
+        }
+        journal.plan(reviewComments);
+        put(reviewComments);
+    }
+
+    /**
+     * Wait until all queued comments are created.
+     */
+    void finish() {
+        end();
+        checkFailure();
+    }
+
+    /**
+     * Stop the publishing thread, dropping the queued comments if {@link #finish()} was not called.
+     */
+    @Override
+    public void close() {
+        if (!ended) {
+            cancelled = true;
+            queue.clear();
+            end();
+        }
+    }
+
+    private void end() {
+        ended = true;
+        put(END);
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while publishing review comments", e);
+        }
+    }
+
+    private void put(List<PublishOperation> reviewComments) {
+        try {
+            queue.put(reviewComments);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while publishing review comments", e);
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void run() {
+        Profiling.CommentPublishing profiling = Profiling.commentPublishing();
+        List<List<PublishOperation>> pending = new ArrayList<>();
+        boolean end = false;
+        try {
+            while (!end) {
+                pending.add(queue.take());
+                queue.drainTo(pending);
+                List<PublishOperation> toBeCreated = new ArrayList<>();
+                for (List<PublishOperation> reviewComments : pending) {
+                    if (reviewComments == END) {
+                        end = true;
+                    } else {
+                        reviewComments.stream().filter(c -> !journal.isAcknowledged(c)).forEach(toBeCreated::add);
+                    }
+                }
+                pending.clear();
+                // After a failure the queue is still consumed so that aggregation never waits forever
+                if (failure == null && !cancelled && !toBeCreated.isEmpty()) {
+                    publish(toBeCreated);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        profiling.finish(comments);
+    }
+
+    private void publish(List<PublishOperation> toBeCreated) {
+        try {
+            commitFacade.createOrUpdateReviewComments(toBeCreated, this::acknowledge);
+            comments += toBeCreated.size();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+    }
+
+    private void acknowledge(PublishOperation reviewComment) {
+        try {
+            journal.acknowledge(reviewComment);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write GitLab publish journal", e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time the plugin may spend over the whole analysis. It is consumed only while the plugin works, between
+ * {@link #resume()} and {@link #pause()}, so that the analysis itself is not counted.
+ */
+final class TimeBudget {
+
+    private final long budgetNanos;
+    private long consumedNanos;
+    private long resumedAt = -1;
+
+    /**
+     * @param budgetMillis total budget, 0 or negative for no limit
+     */
+    TimeBudget(long budgetMillis) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+    }
+
+    boolean isUnlimited() {
+        return budgetNanos <= 0;
+    }
+
+    synchronized void resume() {
+        if (resumedAt < 0) {
+            resumedAt = System.nanoTime();
+        }
+    }
+
+    synchronized void pause() {
+        if (resumedAt >= 0) {
+            consumedNanos += System.nanoTime() - resumedAt;
+            resumedAt = -1;
+        }
+    }
+
+    /**
+     * Remaining time in milliseconds, {@link Long#MAX_VALUE} without limit.
+     */
+    synchronized long remainingMillis() {
+        if (isUnlimited()) {
+            return Long.MAX_VALUE;
+        }
+        long consumed = consumedNanos + (resumedAt >= 0 ? System.nanoTime() - resumedAt : 0);
+        return Math.max(0, TimeUnit.NANOSECONDS.toMillis(budgetNanos - consumed));
+    }
+}
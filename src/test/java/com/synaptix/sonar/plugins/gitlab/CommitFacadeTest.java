@@ -0,0 +1,184 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.synaptix.gitlab.api.GitLabAPI;
+import com.synaptix.gitlab.api.Paged;
+import com.synaptix.gitlab.api.models.commits.GitLabCommitDiff;
+import com.synaptix.gitlab.api.models.projects.GitLabProject;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.InputFile;
+
+public class CommitFacadeTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void indexAddedAndUnchangedLinesOfHunks() throws Exception {
+    BitSet lines = new BitSet();
+    CommitFacade.processPatch("src/Foo.java", lines, "@@ -1,3 +1,4 @@\n"
+      + " line1\n"
+      + "-old2\n"
+      + "+new2\n"
+      + "+new3\n"
+      + " line3\n"
+      + "\\ No newline at end of file\n"
+      + "@@ -10,2 +11,3 @@ method()\n"
+      + " line11\n"
+      + "+new12\n"
+      + " line13");
+
+    assertThat(lines.toString()).isEqualTo("{1, 2, 3, 4, 11, 12, 13}");
+  }
+
+  @Test
+  public void indexDiffsOfAllPages() throws Exception {
+    GitLabPluginConfiguration config = mock(GitLabPluginConfiguration.class);
+    when(config.projectId()).thenReturn("group/project");
+    when(config.commitSHA()).thenReturn("abc123");
+    when(config.summaryThreshold()).thenReturn(-1);
+    when(config.statusOnlyThreshold()).thenReturn(-1);
+
+    GitLabAPI gitLabAPI = mock(GitLabAPI.class, RETURNS_DEEP_STUBS);
+    GitLabProject project = mock(GitLabProject.class);
+    when(project.getId()).thenReturn(12);
+    when(project.getPathWithNamespace()).thenReturn("group/project");
+    when(gitLabAPI.getGitLabAPIProjects().getProjectAlls(null, null, null, null, null, null)).thenReturn(page(project));
+    Paged<GitLabCommitDiff> firstPage = page(diff("src/Foo.java", "@@ -1 +1,2 @@\n line1\n+new2"), diff("src/image.png", null));
+    Paged<GitLabCommitDiff> secondPage = page(diff("src/Bar.java", "@@ -5 +5 @@\n-old5\n+new5"));
+    when(firstPage.getTotal()).thenReturn(3);
+    when(firstPage.nextPage()).thenReturn(secondPage);
+    when(gitLabAPI.getGitLabAPICommits().getCommitDiffs(12, "abc123", null)).thenReturn(firstPage);
+
+    CommitFacade facade = new CommitFacade(config) {
+      @Override
+      GitLabClient newDirectClient() {
+        return new DirectGitLabClient(gitLabAPI, null);
+      }
+    };
+    File projectBaseDir = temp.newFolder();
+    new File(projectBaseDir, ".git").mkdir();
+    facade.init(projectBaseDir);
+
+    assertThat(facade.reportingMode()).isEqualTo(ReportingMode.FULL);
+    InputFile foo = inputFile(projectBaseDir, "src/Foo.java");
+    assertThat(facade.hasFileLine(foo, 1)).isTrue();
+    assertThat(facade.hasFileLine(foo, 2)).isTrue();
+    assertThat(facade.hasFileLine(foo, 3)).isFalse();
+    InputFile bar = inputFile(projectBaseDir, "src/Bar.java");
+    assertThat(facade.hasFileLine(bar, 5)).isTrue();
+    // Binary file: changed, but without lines
+    InputFile image = inputFile(projectBaseDir, "src/image.png");
+    assertThat(facade.hasFile(image)).isTrue();
+    assertThat(facade.hasFileLine(image, 1)).isFalse();
+    assertThat(facade.hasFile(inputFile(projectBaseDir, "src/Other.java"))).isFalse();
+  }
+
+  @Test
+  public void closeClientAndPostFinalStatusWithNewClientOnTimeout() throws Exception {
+    GitLabPluginConfiguration config = mock(GitLabPluginConfiguration.class);
+    when(config.timeBudget()).thenReturn(1);
+    when(config.projectId()).thenReturn("group/project");
+    when(config.commitSHA()).thenReturn("abc123");
+    when(config.refName()).thenReturn("master");
+
+    // Diffs never arrive until the client is closed, as a read blocked on the daemon socket
+    GitLabClient client = mock(GitLabClient.class);
+    CountDownLatch closed = new CountDownLatch(1);
+    when(client.resolveProject("group/project")).thenReturn(new GitLabClient.Project(12, "https://gitlab.com/group/project"));
+    doAnswer(invocation -> closed.await(30, TimeUnit.SECONDS) ? -1 : 0)
+      .when(client).fetchCommitDiffs(anyInt(), anyString(), anyInt(), any(GitLabClient.DiffHandler.class));
+    doAnswer(invocation -> {
+      closed.countDown();
+      return null;
+    }).when(client).close();
+    GitLabClient statusClient = mock(GitLabClient.class);
+    Deque<GitLabClient> clients = new ArrayDeque<>(Arrays.asList(client, statusClient));
+
+    CommitFacade facade = new CommitFacade(config) {
+      @Override
+      GitLabClient newDirectClient() {
+        return clients.poll();
+      }
+    };
+    File projectBaseDir = temp.newFolder();
+    new File(projectBaseDir, ".git").mkdir();
+
+    facade.resumeTimeBudget();
+    try {
+      facade.init(projectBaseDir);
+      fail();
+    } catch (TimeBudgetExceededException e) {
+      assertThat(e.getMessage()).contains("unable to fetch commit diffs");
+    }
+    assertThat(closed.getCount()).isEqualTo(0);
+
+    facade.createOrUpdateSonarQubeStatusAfterTimeout("canceled", "SonarQube GitLab time budget exceeded");
+
+    verify(statusClient).postCommitStatus(12, "abc123", "canceled", "master", "sonarqube", "SonarQube GitLab time budget exceeded");
+    verify(statusClient).close();
+    verify(client, never()).postCommitStatus(anyInt(), anyString(), anyString(), anyString(), anyString(), anyString());
+  }
+
+  @SafeVarargs
+  @SuppressWarnings("unchecked")
+  private static <E> Paged<E> page(E... results) {
+    Paged<E> page = mock(Paged.class);
+    when(page.getResults()).thenReturn(Arrays.asList(results));
+    return page;
+  }
+
+  private static GitLabCommitDiff diff(String newPath, String diff) {
+    GitLabCommitDiff res = mock(GitLabCommitDiff.class);
+    when(res.getNewPath()).thenReturn(newPath);
+    when(res.getDiff()).thenReturn(diff);
+    return res;
+  }
+
+  private static InputFile inputFile(File baseDir, String path) {
+    InputFile inputFile = mock(InputFile.class);
+    when(inputFile.file()).thenReturn(new File(baseDir, path));
+    return inputFile;
+  }
+}
@@ -0,0 +1,231 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.ArgumentCaptor;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.postjob.PostJobContext;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.config.Settings;
+import org.sonar.api.rule.RuleKey;
+
+public class CommitIssuePostJobTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private GitLabPluginConfiguration config;
+  private CommitFacade commitFacade;
+  private MarkDownUtils markDownUtils;
+  private FileSystem fileSystem;
+  private List<PublishOperation> reviewComments;
+
+  @Before
+  public void prepare() throws Exception {
+    config = mock(GitLabPluginConfiguration.class);
+    when(config.maxGlobalIssues()).thenReturn(10);
+    when(config.ignoreFileNotInCommit()).thenReturn(true);
+    when(config.maxInlineComments()).thenReturn(-1);
+    when(config.commitSHA()).thenReturn("abc123");
+
+    commitFacade = mock(CommitFacade.class);
+    when(commitFacade.reportingMode()).thenReturn(ReportingMode.FULL);
+    reviewComments = recordReviewComments(commitFacade);
+
+    Settings settings = mock(Settings.class);
+    when(settings.getString("sonar.host.url")).thenReturn("http://sonar");
+    markDownUtils = new MarkDownUtils(settings);
+
+    fileSystem = mock(FileSystem.class);
+    when(fileSystem.workDir()).thenReturn(temp.newFolder());
+  }
+
+  @Test
+  public void allocateInlineCommentsToMostSevereIssues() {
+    when(config.maxInlineComments()).thenReturn(2);
+    InputFile a = inputFile("src/A.java");
+    InputFile b = inputFile("src/B.java");
+
+    execute(
+      newIssue(a, 1, Severity.INFO, "Info issue"),
+      newIssue(a, 2, Severity.MINOR, "Minor issue"),
+      newIssue(b, 5, Severity.BLOCKER, "Blocker issue"),
+      newIssue(a, 3, Severity.CRITICAL, "Critical issue"),
+      newIssue(b, 4, Severity.MAJOR, "Major issue"));
+
+    // One GitLab call per inline comment, within max_inline_comments
+    assertThat(reviewComments).hasSize(2);
+    assertThat(reviewComments.stream().map(PublishOperation::path).collect(Collectors.toList())).containsOnly("src/A.java", "src/B.java");
+    PublishOperation onA = reviewComments.stream().filter(c -> c.path().equals("src/A.java")).findFirst().get();
+    assertThat(onA.line()).isEqualTo(3);
+    assertThat(onA.body()).contains("Critical issue");
+    PublishOperation onB = reviewComments.stream().filter(c -> c.path().equals("src/B.java")).findFirst().get();
+    assertThat(onB.line()).isEqualTo(5);
+    assertThat(onB.body()).contains("Blocker issue");
+
+    ArgumentCaptor<String> globalComment = ArgumentCaptor.forClass(String.class);
+    verify(commitFacade).addGlobalComment(globalComment.capture());
+    assertThat(globalComment.getValue())
+      .contains("3 issues could not be reported as comments because the maximum number of inline comments was reached")
+      .contains("* :warning: 1 major\n", "* :arrow_down_small: 1 minor\n", "* :information_source: 1 info\n");
+    verify(commitFacade).createOrUpdateSonarQubeStatus(eq("failed"), anyString());
+  }
+
+  @Test
+  public void commentPerFileWithRowsInLineOrder() {
+    when(config.commentPerFile()).thenReturn(true);
+    InputFile a = inputFile("src/A.java");
+    InputFile b = inputFile("src/B.java");
+
+    execute(
+      newIssue(a, 7, Severity.MAJOR, "Issue at 7"),
+      newIssue(a, 3, Severity.MINOR, "Issue at 3"),
+      newIssue(b, 2, Severity.INFO, "Issue at 2"),
+      newIssue(a, 5, Severity.BLOCKER, "Issue at 5 | with pipe\non two lines"));
+
+    // One GitLab call per file
+    assertThat(reviewComments).hasSize(2);
+    PublishOperation onA = reviewComments.stream().filter(c -> c.path().equals("src/A.java")).findFirst().get();
+    assertThat(onA.line()).isEqualTo(3);
+    String body = onA.body();
+    assertThat(body).startsWith(MarkDownUtils.INLINE_ISSUE_TABLE_HEADER);
+    assertThat(body.split("\n")).hasSize(5);
+    assertThat(body.indexOf("| L3 |")).isLessThan(body.indexOf("| L5 |"));
+    assertThat(body.indexOf("| L5 |")).isLessThan(body.indexOf("| L7 |"));
+    assertThat(body).contains("Issue at 5 \\| with pipe on two lines");
+    PublishOperation onB = reviewComments.stream().filter(c -> c.path().equals("src/B.java")).findFirst().get();
+    assertThat(onB.line()).isEqualTo(2);
+  }
+
+  @Test
+  public void rerunSkipsCommentsPublishedByPreviousRun() throws Exception {
+    when(config.journalDir()).thenReturn(temp.newFolder().getAbsolutePath());
+    InputFile a = inputFile("src/A.java");
+    InputFile b = inputFile("src/B.java");
+    PostJobIssue[] issues = {newIssue(a, 1, Severity.MAJOR, "Issue on A"), newIssue(b, 2, Severity.MINOR, "Issue on B")};
+
+    execute(issues);
+    assertThat(reviewComments).hasSize(2);
+
+    // The scanner work dir is cleaned between analyses
+    when(fileSystem.workDir()).thenReturn(temp.newFolder());
+    execute(issues);
+
+    assertThat(reviewComments).hasSize(2);
+    verify(commitFacade, never()).createOrUpdateReviewComment(anyString(), anyInt(), anyString());
+    verify(commitFacade, times(1)).addGlobalComment(anyString());
+    // Status is always published again
+    verify(commitFacade, times(2)).createOrUpdateSonarQubeStatus(eq("success"), anyString());
+  }
+
+  @Test
+  public void exportOverBudgetIssuesAsNotReportedInline() throws Exception {
+    when(config.exportReport()).thenReturn(true);
+    when(config.maxInlineComments()).thenReturn(1);
+    InputFile a = inputFile("src/A.java");
+
+    execute(
+      newIssue(a, 1, Severity.MINOR, "Minor issue"),
+      newIssue(a, 2, Severity.CRITICAL, "Critical issue"));
+
+    File export = new File(fileSystem.workDir(), "gitlab/abc123-issues.jsonl");
+    List<String> lines = Files.readAllLines(export.toPath(), StandardCharsets.UTF_8);
+    assertThat(lines).hasSize(2);
+    assertThat(lines.get(0)).contains("\"severity\":\"CRITICAL\"", "\"reportedInline\":true");
+    assertThat(lines.get(1)).contains("\"severity\":\"MINOR\"", "\"reportedInline\":false");
+  }
+
+  InputFile inputFile(String path) {
+    InputFile inputFile = mock(InputFile.class);
+    when(inputFile.isFile()).thenReturn(true);
+    when(commitFacade.hasFile(inputFile)).thenReturn(true);
+    for (int line = 1; line <= 100; line++) {
+      when(commitFacade.hasFileLine(inputFile, line)).thenReturn(true);
+    }
+    when(commitFacade.getPath(inputFile)).thenReturn(path);
+    return inputFile;
+  }
+
+  PostJobIssue newIssue(InputFile inputFile, Integer line, Severity severity, String message) {
+    String path = commitFacade.getPath(inputFile);
+    PostJobIssue issue = mock(PostJobIssue.class);
+    when(issue.isNew()).thenReturn(true);
+    when(issue.inputComponent()).thenReturn(inputFile);
+    when(issue.componentKey()).thenReturn("project:" + path);
+    when(issue.line()).thenReturn(line);
+    when(issue.severity()).thenReturn(severity);
+    when(issue.ruleKey()).thenReturn(RuleKey.parse("squid:S1"));
+    when(issue.message()).thenReturn(message);
+    return issue;
+  }
+
+  void execute(PostJobIssue... issues) {
+    PostJobContext context = mock(PostJobContext.class);
+    when(context.issues()).thenReturn(Arrays.asList(issues));
+    new CommitIssuePostJob(config, commitFacade, markDownUtils, fileSystem).execute(context);
+  }
+
+  /**
+   * Record the inline comments created through the facade, each one reported as created.
+   */
+  @SuppressWarnings("unchecked")
+  static List<PublishOperation> recordReviewComments(CommitFacade commitFacade) {
+    List<PublishOperation> created = Collections.synchronizedList(new ArrayList<>());
+    doAnswer(invocation -> {
+      List<PublishOperation> comments = (List<PublishOperation>) invocation.getArguments()[0];
+      Consumer<PublishOperation> onCreated = (Consumer<PublishOperation>) invocation.getArguments()[1];
+      for (PublishOperation comment : comments) {
+        created.add(comment);
+        onCreated.accept(comment);
+      }
+      return null;
+    }).when(commitFacade).createOrUpdateReviewComments(anyListOf(PublishOperation.class), any(Consumer.class));
+    return created;
+  }
+}
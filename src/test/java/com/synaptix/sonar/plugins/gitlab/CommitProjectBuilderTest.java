@@ -0,0 +1,52 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Test;
+import org.sonar.api.batch.AnalysisMode;
+import org.sonar.api.batch.bootstrap.ProjectBuilder;
+
+public class CommitProjectBuilderTest {
+
+  @Test
+  public void cancelWhenPendingStatusTimesOut() {
+    GitLabPluginConfiguration config = mock(GitLabPluginConfiguration.class);
+    when(config.isEnabled()).thenReturn(true);
+    AnalysisMode mode = mock(AnalysisMode.class);
+    when(mode.isIssues()).thenReturn(true);
+    CommitFacade commitFacade = mock(CommitFacade.class);
+    doThrow(new TimeBudgetExceededException("GitLab time budget exceeded, unable to update commit status"))
+      .when(commitFacade).createOrUpdateSonarQubeStatus(eq("pending"), anyString());
+
+    new CommitProjectBuilder(config, commitFacade, mode).build(mock(ProjectBuilder.Context.class, RETURNS_DEEP_STUBS));
+
+    verify(commitFacade).cancel();
+    verify(commitFacade).createOrUpdateSonarQubeStatusAfterTimeout(eq("canceled"), anyString());
+    verify(commitFacade).pauseTimeBudget();
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.synaptix.gitlab.api.GitLabAPI;
+import com.synaptix.gitlab.api.Paged;
+import com.synaptix.gitlab.api.models.commits.GitLabCommitDiff;
+
+import org.junit.Test;
+
+public class DirectGitLabClientTest {
+
+  private GitLabAPI gitLabAPI = mock(GitLabAPI.class, RETURNS_DEEP_STUBS);
+  @SuppressWarnings("unchecked")
+  private Paged<GitLabCommitDiff> paged = mock(Paged.class);
+
+  @Test
+  public void handOverDiffs() throws Exception {
+    when(gitLabAPI.getGitLabAPICommits().getCommitDiffs(12, "abc123", null)).thenReturn(paged);
+    when(paged.getTotal()).thenReturn(2);
+    when(paged.getResults()).thenReturn(Arrays.asList(diff("src/Foo.java", "@@ -1 +1 @@"), diff("src/Bar.java", null)));
+
+    List<String> diffs = new ArrayList<>();
+    int total = new DirectGitLabClient(gitLabAPI, null).fetchCommitDiffs(12, "abc123", 2, (newPath, diff) -> diffs.add(newPath + "=" + diff));
+
+    assertThat(total).isEqualTo(2);
+    assertThat(diffs).containsExactly("src/Foo.java=@@ -1 +1 @@", "src/Bar.java=null");
+  }
+
+  @Test
+  public void stopAfterFirstPageOnTooManyFiles() throws Exception {
+    when(gitLabAPI.getGitLabAPICommits().getCommitDiffs(12, "abc123", null)).thenReturn(paged);
+    when(paged.getTotal()).thenReturn(10001);
+
+    List<String> diffs = new ArrayList<>();
+    int total = new DirectGitLabClient(gitLabAPI, null).fetchCommitDiffs(12, "abc123", 10000, (newPath, diff) -> diffs.add(newPath));
+
+    assertThat(total).isEqualTo(10001);
+    assertThat(diffs).isEmpty();
+    verify(paged, never()).getResults();
+    verify(paged, never()).nextPage();
+  }
+
+  @Test
+  public void refuseNextPagesOnceClosed() throws Exception {
+    when(gitLabAPI.getGitLabAPICommits().getCommitDiffs(12, "abc123", null)).thenReturn(paged);
+    when(paged.getTotal()).thenReturn(200);
+    when(paged.getResults()).thenReturn(Arrays.asList(diff("src/Foo.java", "@@ -1 +1 @@")));
+    DirectGitLabClient client = new DirectGitLabClient(gitLabAPI, null);
+
+    try {
+      // Closed on timeout while the first page is handed over
+      client.fetchCommitDiffs(12, "abc123", -1, (newPath, diff) -> client.close());
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("GitLab client closed, GET commit diffs not sent");
+    }
+    verify(paged, never()).nextPage();
+  }
+
+  private static GitLabCommitDiff diff(String newPath, String diff) {
+    GitLabCommitDiff res = mock(GitLabCommitDiff.class);
+    when(res.getNewPath()).thenReturn(newPath);
+    when(res.getDiff()).thenReturn(diff);
+    return res;
+  }
+}
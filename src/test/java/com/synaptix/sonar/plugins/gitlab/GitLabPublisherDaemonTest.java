@@ -0,0 +1,136 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GitLabPublisherDaemonTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private GitLabClient gitLabClient = mock(GitLabClient.class);
+  private ServerSocket serverSocket;
+  private Path secretFile;
+
+  @Before
+  public void startDaemon() throws IOException {
+    secretFile = temp.getRoot().toPath().resolve("publisher.secret");
+    GitLabPublisherDaemon daemon = new GitLabPublisherDaemon(DaemonProtocol.createSecret(secretFile), (url, userToken, ignoreCertificate) -> gitLabClient);
+    serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread thread = new Thread(() -> {
+      try {
+        daemon.serve(serverSocket);
+      } catch (IOException e) {
+        // Server socket closed
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @After
+  public void stopDaemon() throws IOException {
+    serverSocket.close();
+  }
+
+  @Test
+  public void roundTrip() throws Exception {
+    when(gitLabClient.resolveProject("group/project")).thenReturn(new GitLabClient.Project(12, "https://gitlab.com/group/project"));
+    doAnswer(invocation -> {
+      GitLabClient.DiffHandler handler = (GitLabClient.DiffHandler) invocation.getArguments()[3];
+      handler.onDiff("src/Foo.java", "@@ -1 +1,2 @@\n+foo");
+      handler.onDiff("src/image.png", null);
+      return 3;
+    }).when(gitLabClient).fetchCommitDiffs(eq(12), eq("abc123"), eq(100), any(GitLabClient.DiffHandler.class));
+    doAnswer(invocation -> {
+      throw new IllegalStateException("Unable to find project ID unknown");
+    }).when(gitLabClient).resolveProject("unknown");
+    doAnswer(invocation -> {
+      throw new IOException("500 Internal Server Error");
+    }).when(gitLabClient).postCommitStatus(anyInt(), anyString(), anyString(), anyString(), anyString(), anyString());
+
+    try (DaemonGitLabClient client = connect(secretFile)) {
+      GitLabClient.Project project = client.resolveProject("group/project");
+      assertThat(project.id()).isEqualTo(12);
+      assertThat(project.webUrl()).isEqualTo("https://gitlab.com/group/project");
+
+      List<String> diffs = new ArrayList<>();
+      assertThat(client.fetchCommitDiffs(12, "abc123", 100, (newPath, diff) -> diffs.add(newPath + "=" + diff))).isEqualTo(3);
+      assertThat(diffs).containsExactly("src/Foo.java=@@ -1 +1,2 @@\n+foo", "src/image.png=null");
+
+      try {
+        client.resolveProject("unknown");
+        fail();
+      } catch (IllegalStateException e) {
+        assertThat(e).hasMessage("Unable to find project ID unknown");
+      }
+      try {
+        client.postCommitStatus(12, "abc123", "failed", "master", "sonarqube", "SonarQube reported 1 issue");
+        fail();
+      } catch (IOException e) {
+        assertThat(e.getMessage()).contains("500 Internal Server Error");
+      }
+
+      // Stream is still usable after failed calls
+      client.postCommitComment(12, "abc123", "comment", "src/Foo.java", 2, "new");
+    }
+    verify(gitLabClient).postCommitComment(12, "abc123", "comment", "src/Foo.java", 2, "new");
+  }
+
+  @Test
+  public void refuseClientWithoutSecret() throws Exception {
+    Path otherSecretFile = temp.getRoot().toPath().resolve("other.secret");
+    DaemonProtocol.createSecret(otherSecretFile);
+
+    try {
+      connect(otherSecretFile).close();
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage("GitLab publisher daemon could not be authenticated");
+    }
+  }
+
+  private DaemonGitLabClient connect(Path secretFile) throws IOException {
+    return DaemonGitLabClient.connect(serverSocket.getLocalPort(), secretFile, "https://gitlab.com", "token", false);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.rule.RuleKey;
+
+public class IndexedIssueTest {
+
+  @Test
+  public void sortLikeIssueComparator() {
+    Random random = new Random(42);
+    List<PostJobIssue> issues = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      Severity severity = Severity.values()[random.nextInt(Severity.values().length)];
+      Integer line = random.nextInt(5) == 0 ? null : random.nextInt(50) + 1;
+      issues.add(newIssue(severity, "project:src/File" + random.nextInt(20) + ".java", line, "squid:S" + random.nextInt(10)));
+    }
+
+    List<PostJobIssue> expected = new ArrayList<>(issues);
+    expected.sort(new IssueComparator());
+
+    List<IndexedIssue> indexedIssues = IndexedIssue.sort(issues);
+    assertThat(indexedIssues.stream().map(IndexedIssue::issue).collect(Collectors.toList())).isEqualTo(expected);
+    for (IndexedIssue indexedIssue : indexedIssues) {
+      assertThat(indexedIssue.ruleKey()).isEqualTo(indexedIssue.issue().ruleKey().toString());
+    }
+  }
+
+  @Test
+  public void orderByComponentKeepingSeverityOrder() {
+    List<IndexedIssue> indexedIssues = IndexedIssue.sort(Arrays.asList(
+      newIssue(Severity.MINOR, "project:src/A.java", 1, "squid:S1"),
+      newIssue(Severity.BLOCKER, "project:src/B.java", 1, "squid:S1"),
+      newIssue(Severity.BLOCKER, "project:src/A.java", 2, "squid:S1"),
+      newIssue(Severity.MAJOR, "project:src/B.java", 3, "squid:S1")));
+
+    // Sorted: A:2 (blocker), B:1 (blocker), B:3 (major), A:1 (minor)
+    assertThat(IndexedIssue.componentOrder(indexedIssues)).containsExactly(0, 3, 1, 2);
+    // Same line of the same file whatever the severity
+    assertThat(indexedIssues.get(1).positionKey()).isNotEqualTo(indexedIssues.get(0).positionKey());
+    assertThat(IndexedIssue.sort(Arrays.asList(newIssue(Severity.INFO, "project:src/A.java", 2, "squid:S2"))).get(0).positionKey())
+      .isEqualTo(indexedIssues.get(0).positionKey());
+  }
+
+  private static PostJobIssue newIssue(Severity severity, String componentKey, Integer line, String ruleKey) {
+    PostJobIssue issue = mock(PostJobIssue.class);
+    when(issue.severity()).thenReturn(severity);
+    when(issue.componentKey()).thenReturn(componentKey);
+    when(issue.line()).thenReturn(line);
+    when(issue.ruleKey()).thenReturn(RuleKey.parse(ruleKey));
+    return issue;
+  }
+}
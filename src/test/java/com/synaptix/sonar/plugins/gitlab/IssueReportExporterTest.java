@@ -0,0 +1,75 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.rule.RuleKey;
+
+public class IssueReportExporterTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void writeOneObjectPerIssue() throws Exception {
+    List<IndexedIssue> issues = IndexedIssue.sort(Arrays.asList(
+      newIssue("project:src/Foo.java", 12, Severity.MAJOR, "Remove \"foo\" from C:\\tmp\nand\tretry\u0001"),
+      newIssue("project", null, Severity.INFO, "Project issue")));
+
+    File file;
+    try (IssueReportExporter exporter = IssueReportExporter.open(temp.getRoot(), "abc/123")) {
+      exporter.write(issues.get(0), "https://gitlab.com/group/project/blob/abc123/src/Foo.java#L12", true);
+      exporter.write(issues.get(1), null, false);
+      file = exporter.file();
+    }
+
+    assertThat(file.getName()).isEqualTo("abc_123-issues.jsonl");
+    assertThat(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)).containsExactly(
+      "{\"severity\":\"MAJOR\",\"rule\":\"squid:S1\",\"component\":\"project:src/Foo.java\",\"line\":12,"
+        + "\"message\":\"Remove \\\"foo\\\" from C:\\\\tmp\\nand\\tretry\\u0001\",\"reportedInline\":true,"
+        + "\"url\":\"https://gitlab.com/group/project/blob/abc123/src/Foo.java#L12\"}",
+      "{\"severity\":\"INFO\",\"rule\":\"squid:S1\",\"component\":\"project\",\"line\":null,"
+        + "\"message\":\"Project issue\",\"reportedInline\":false,\"url\":null}");
+  }
+
+  private static PostJobIssue newIssue(String componentKey, Integer line, Severity severity, String message) {
+    PostJobIssue issue = mock(PostJobIssue.class);
+    when(issue.componentKey()).thenReturn(componentKey);
+    when(issue.line()).thenReturn(line);
+    when(issue.severity()).thenReturn(severity);
+    when(issue.ruleKey()).thenReturn(RuleKey.parse("squid:S1"));
+    when(issue.message()).thenReturn(message);
+    return issue;
+  }
+}
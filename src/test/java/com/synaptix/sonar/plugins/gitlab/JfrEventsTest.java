@@ -0,0 +1,160 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import com.synaptix.gitlab.api.GitLabAPI;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.batch.fs.FileSystem;
+import org.sonar.api.batch.fs.InputFile;
+import org.sonar.api.batch.postjob.PostJobContext;
+import org.sonar.api.batch.postjob.issue.PostJobIssue;
+import org.sonar.api.batch.rule.Severity;
+import org.sonar.api.rule.RuleKey;
+
+public class JfrEventsTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void emitEventsUnderRecording() throws Exception {
+    GitLabPluginConfiguration config = mock(GitLabPluginConfiguration.class);
+    when(config.maxGlobalIssues()).thenReturn(10);
+    when(config.ignoreFileNotInCommit()).thenReturn(true);
+    when(config.maxInlineComments()).thenReturn(-1);
+    when(config.commitSHA()).thenReturn("abc123");
+
+    InputFile inputFile = mock(InputFile.class);
+    when(inputFile.isFile()).thenReturn(true);
+
+    CommitFacade commitFacade = mock(CommitFacade.class);
+    when(commitFacade.hasFile(inputFile)).thenReturn(true);
+    when(commitFacade.hasFileLine(inputFile, 2)).thenReturn(true);
+    when(commitFacade.getPath(inputFile)).thenReturn("src/Foo.java");
+    when(commitFacade.reportingMode()).thenReturn(ReportingMode.FULL);
+
+    MarkDownUtils markDownUtils = mock(MarkDownUtils.class);
+    when(markDownUtils.inlineIssue(any(Severity.class), anyString(), anyString())).thenReturn("issue");
+
+    PostJobIssue issue = mock(PostJobIssue.class);
+    when(issue.isNew()).thenReturn(true);
+    when(issue.inputComponent()).thenReturn(inputFile);
+    when(issue.componentKey()).thenReturn("project:src/Foo.java");
+    when(issue.line()).thenReturn(2);
+    when(issue.severity()).thenReturn(Severity.MAJOR);
+    when(issue.ruleKey()).thenReturn(RuleKey.parse("squid:S1"));
+    when(issue.message()).thenReturn("Fix it");
+
+    FileSystem fileSystem = mock(FileSystem.class);
+    when(fileSystem.workDir()).thenReturn(temp.newFolder());
+
+    PostJobContext context = mock(PostJobContext.class);
+    when(context.issues()).thenReturn(Arrays.asList(issue));
+
+    File dump = temp.newFile("events.jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(DiffParsingEvent.class);
+      recording.enable(IssueAggregationEvent.class);
+      recording.enable(CommentPublishingEvent.class);
+      recording.start();
+
+      CommitFacade.processPatch("src/Foo.java", new BitSet(), "@@ -1,2 +1,3 @@\n a\n+b\n c\n");
+      new CommitIssuePostJob(config, commitFacade, markDownUtils, fileSystem).execute(context);
+
+      recording.stop();
+      recording.dump(dump.toPath());
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(dump.toPath());
+    Set<String> names = events.stream().map(e -> e.getEventType().getName()).collect(Collectors.toSet());
+    assertThat(names).contains("com.synaptix.sonar.plugins.gitlab.DiffParsing", "com.synaptix.sonar.plugins.gitlab.IssueAggregation",
+      "com.synaptix.sonar.plugins.gitlab.CommentPublishing");
+
+    RecordedEvent diffParsing = find(events, "com.synaptix.sonar.plugins.gitlab.DiffParsing");
+    assertThat(diffParsing.getString("path")).isEqualTo("src/Foo.java");
+    assertThat(diffParsing.getInt("lines")).isEqualTo(3);
+    assertThat(find(events, "com.synaptix.sonar.plugins.gitlab.IssueAggregation").getInt("issues")).isEqualTo(1);
+    assertThat(find(events, "com.synaptix.sonar.plugins.gitlab.CommentPublishing").getInt("comments")).isEqualTo(1);
+  }
+
+  @Test
+  public void recordGitLabCalls() throws Exception {
+    GitLabAPI gitLabAPI = mock(GitLabAPI.class, RETURNS_DEEP_STUBS);
+    DirectGitLabClient client = new DirectGitLabClient(gitLabAPI, null);
+
+    File dump = temp.newFile("calls.jfr");
+    try (Recording recording = new Recording()) {
+      recording.enable(GitLabCallEvent.class);
+      recording.start();
+
+      client.postCommitComment(1, "abc123", "d\u00e9j\u00e0 vu", "src/Foo.java", 2, "new");
+      try {
+        Profiling.gitLabCall("GET commit diffs", null, () -> {
+          throw new IOException("Connection refused");
+        });
+        fail("IOException expected");
+      } catch (IOException e) {
+        assertThat(e).hasMessage("Connection refused");
+      }
+
+      recording.stop();
+      recording.dump(dump.toPath());
+    }
+
+    List<RecordedEvent> events = RecordingFile.readAllEvents(dump.toPath()).stream()
+      .filter(e -> e.getEventType().getName().equals("com.synaptix.sonar.plugins.gitlab.GitLabCall"))
+      .collect(Collectors.toList());
+    assertThat(events).hasSize(2);
+    assertThat(events.get(0).getString("endpoint")).isEqualTo("POST commit comment");
+    assertThat(events.get(0).getString("status")).isEqualTo("success");
+    // Size of the UTF-8 encoded body
+    assertThat(events.get(0).getLong("bytes")).isEqualTo(9);
+    assertThat(events.get(1).getString("endpoint")).isEqualTo("GET commit diffs");
+    assertThat(events.get(1).getString("status")).isEqualTo("IOException");
+    assertThat(events.get(1).getLong("bytes")).isEqualTo(0);
+  }
+
+  private static RecordedEvent find(List<RecordedEvent> events, String name) {
+    return events.stream().filter(e -> e.getEventType().getName().equals(name)).findFirst().get();
+  }
+}
@@ -0,0 +1,57 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PublishJournalTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  @Test
+  public void resumeFromAcknowledgedOperations() throws Exception {
+    File workDir = temp.newFolder();
+    PublishOperation first = PublishOperation.inlineComment("src/Foo.java", 12, "comment 1");
+    PublishOperation second = PublishOperation.inlineComment("src/Foo.java", 15, "comment 2");
+
+    try (PublishJournal journal = PublishJournal.open(workDir, "abc123")) {
+      assertThat(journal.hasAcknowledgements()).isFalse();
+      journal.plan(Arrays.asList(first, second));
+      journal.acknowledge(first);
+    }
+
+    try (PublishJournal journal = PublishJournal.open(workDir, "abc123")) {
+      assertThat(journal.isAcknowledged(PublishOperation.inlineComment("src/Foo.java", 12, "comment 1"))).isTrue();
+      assertThat(journal.isAcknowledged(second)).isFalse();
+    }
+
+    try (PublishJournal journal = PublishJournal.open(workDir, "def456")) {
+      assertThat(journal.hasAcknowledgements()).isFalse();
+    }
+  }
+}
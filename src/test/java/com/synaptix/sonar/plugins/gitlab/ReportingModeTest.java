@@ -0,0 +1,48 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class ReportingModeTest {
+
+  @Test
+  public void selectFromChangedFiles() {
+    assertThat(ReportingMode.select(1000, 1000, 10000)).isEqualTo(ReportingMode.FULL);
+    assertThat(ReportingMode.select(1001, 1000, 10000)).isEqualTo(ReportingMode.SUMMARY);
+    assertThat(ReportingMode.select(10000, 1000, 10000)).isEqualTo(ReportingMode.SUMMARY);
+    assertThat(ReportingMode.select(10001, 1000, 10000)).isEqualTo(ReportingMode.STATUS_ONLY);
+  }
+
+  @Test
+  public void negativeThresholdDisablesMode() {
+    assertThat(ReportingMode.select(10001, -1, 10000)).isEqualTo(ReportingMode.STATUS_ONLY);
+    assertThat(ReportingMode.select(10001, 1000, -1)).isEqualTo(ReportingMode.SUMMARY);
+    assertThat(ReportingMode.select(10001, -1, -1)).isEqualTo(ReportingMode.FULL);
+  }
+
+  @Test
+  public void unknownChangedFiles() {
+    // GitLab did not report the number of changed files
+    assertThat(ReportingMode.select(-1, 0, 0)).isEqualTo(ReportingMode.FULL);
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReviewCommentPublisherTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private CommitFacade commitFacade = mock(CommitFacade.class);
+  private PublishJournal journal;
+  private List<PublishOperation> created = Collections.synchronizedList(new ArrayList<>());
+  private CountDownLatch publishing = new CountDownLatch(1);
+  private CountDownLatch gitLab = new CountDownLatch(1);
+
+  @Before
+  public void openJournal() throws Exception {
+    journal = PublishJournal.open(temp.newFolder(), "abc123");
+  }
+
+  @After
+  public void closeJournal() throws Exception {
+    journal.close();
+  }
+
+  @Test
+  public void waitWhenQueueIsFull() throws Exception {
+    slowGitLab(null);
+    ReviewCommentPublisher publisher = new ReviewCommentPublisher(commitFacade, journal, 1);
+
+    publisher.submit(comments("src/A.java"));
+    assertThat(publishing.await(5, TimeUnit.SECONDS)).isTrue();
+    // Queued while A is created, the queue is then full
+    publisher.submit(comments("src/B.java"));
+    Thread submitter = submitInBackground(publisher, "src/C.java");
+
+    assertThat(waitUntilBlocked(submitter)).isTrue();
+    gitLab.countDown();
+    submitter.join(5000);
+    assertThat(submitter.isAlive()).isFalse();
+    publisher.finish();
+    publisher.close();
+
+    assertThat(paths(created)).containsOnly("src/A.java", "src/B.java", "src/C.java");
+    assertThat(journal.unacknowledged()).isEmpty();
+  }
+
+  @Test
+  public void reportFailureWhileQueueIsFull() throws Exception {
+    slowGitLab(new IllegalStateException("Unable to create review comments"));
+    ReviewCommentPublisher publisher = new ReviewCommentPublisher(commitFacade, journal, 1);
+
+    publisher.submit(comments("src/A.java"));
+    assertThat(publishing.await(5, TimeUnit.SECONDS)).isTrue();
+    publisher.submit(comments("src/B.java"));
+    Thread submitter = submitInBackground(publisher, "src/C.java");
+
+    assertThat(waitUntilBlocked(submitter)).isTrue();
+    gitLab.countDown();
+    // Aggregation is not stuck after the failure
+    submitter.join(5000);
+    assertThat(submitter.isAlive()).isFalse();
+    try {
+      publisher.finish();
+      fail();
+    } catch (IllegalStateException e) {
+      assertThat(e).hasMessage("Unable to create review comments");
+    }
+    publisher.close();
+
+    verify(commitFacade, times(1)).createOrUpdateReviewComments(anyListOf(PublishOperation.class), any(Consumer.class));
+    // Comments are planned, a rerun creates them
+    assertThat(paths(journal.unacknowledged())).containsOnly("src/A.java", "src/B.java", "src/C.java");
+  }
+
+  @Test
+  public void dropQueuedCommentsOnClose() throws Exception {
+    slowGitLab(null);
+    ReviewCommentPublisher publisher = new ReviewCommentPublisher(commitFacade, journal, 1);
+
+    publisher.submit(comments("src/A.java"));
+    assertThat(publishing.await(5, TimeUnit.SECONDS)).isTrue();
+    publisher.submit(comments("src/B.java"));
+    Thread closer = new Thread(publisher::close);
+    closer.start();
+    assertThat(waitUntilBlocked(closer)).isTrue();
+    gitLab.countDown();
+    closer.join(5000);
+    assertThat(closer.isAlive()).isFalse();
+
+    assertThat(paths(created)).containsOnly("src/A.java");
+    assertThat(paths(journal.unacknowledged())).containsOnly("src/B.java");
+  }
+
+  /**
+   * Creation of the comments waits for {@link #gitLab}, then fails with the given exception if any.
+   */
+  @SuppressWarnings("unchecked")
+  private void slowGitLab(RuntimeException failure) {
+    doAnswer(invocation -> {
+      publishing.countDown();
+      gitLab.await();
+      if (failure != null) {
+        throw failure;
+      }
+      List<PublishOperation> comments = (List<PublishOperation>) invocation.getArguments()[0];
+      Consumer<PublishOperation> onCreated = (Consumer<PublishOperation>) invocation.getArguments()[1];
+      for (PublishOperation comment : comments) {
+        created.add(comment);
+        onCreated.accept(comment);
+      }
+      return null;
+    }).when(commitFacade).createOrUpdateReviewComments(anyListOf(PublishOperation.class), any(Consumer.class));
+  }
+
+  private static List<PublishOperation> comments(String path) {
+    List<PublishOperation> comments = new ArrayList<>();
+    comments.add(PublishOperation.inlineComment(path, 1, "comment on " + path));
+    return comments;
+  }
+
+  private static List<String> paths(List<PublishOperation> operations) {
+    return operations.stream().map(PublishOperation::path).collect(Collectors.toList());
+  }
+
+  private static Thread submitInBackground(ReviewCommentPublisher publisher, String path) {
+    Thread thread = new Thread(() -> {
+      try {
+        publisher.submit(comments(path));
+      } catch (Exception e) {
+        throw new IllegalStateException(e);
+      }
+    });
+    thread.start();
+    return thread;
+  }
+
+  private static boolean waitUntilBlocked(Thread thread) throws InterruptedException {
+    for (int i = 0; i < 500; i++) {
+      if (thread.getState() == Thread.State.WAITING) {
+        return true;
+      }
+      Thread.sleep(10);
+    }
+    return false;
+  }
+}
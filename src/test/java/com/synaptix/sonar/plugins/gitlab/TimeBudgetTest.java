@@ -0,0 +1,65 @@
+/*
+ * SonarQube :: GitLab Plugin
+ * Copyright (C) 2016-2017 Talanlabs
+ * gabriel.allaigre@talanlabs.com
+ *
+ * This program is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3 of the License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this program; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301, USA.
+ */
+package com.synaptix.sonar.plugins.gitlab;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+
+public class TimeBudgetTest {
+
+  @Test
+  public void consumeOnlyWhileResumed() throws Exception {
+    TimeBudget timeBudget = new TimeBudget(10000);
+    assertThat(timeBudget.remainingMillis()).isEqualTo(10000);
+
+    timeBudget.resume();
+    Thread.sleep(50);
+    // Resuming again does not restart the measure
+    timeBudget.resume();
+    timeBudget.pause();
+    long remaining = timeBudget.remainingMillis();
+    assertThat(remaining).isLessThanOrEqualTo(9950).isGreaterThan(0);
+
+    Thread.sleep(50);
+    timeBudget.pause();
+    assertThat(timeBudget.remainingMillis()).isEqualTo(remaining);
+
+    timeBudget.resume();
+    Thread.sleep(50);
+    assertThat(timeBudget.remainingMillis()).isLessThanOrEqualTo(remaining - 50);
+  }
+
+  @Test
+  public void neverNegative() throws Exception {
+    TimeBudget timeBudget = new TimeBudget(10);
+    timeBudget.resume();
+    Thread.sleep(50);
+    assertThat(timeBudget.remainingMillis()).isEqualTo(0);
+  }
+
+  @Test
+  public void unlimited() {
+    TimeBudget timeBudget = new TimeBudget(0);
+    timeBudget.resume();
+    assertThat(timeBudget.isUnlimited()).isTrue();
+    assertThat(timeBudget.remainingMillis()).isEqualTo(Long.MAX_VALUE);
+  }
+}